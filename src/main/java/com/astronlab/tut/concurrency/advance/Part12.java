@@ -1,6 +1,7 @@
 package com.astronlab.tut.concurrency.advance;
 
 import com.astronlab.tut.utils.http.HttpInvoker;
+import com.astronlab.tut.utils.http.HttpRequestContext;
 import com.astronlab.tut.utils.TimeAnalyzer;
 
 import java.util.ArrayList;
@@ -170,6 +171,7 @@ public class Part12 {
 	public static void main(String[] args) throws Exception {
 		TimeAnalyzer timeAnalyzer = TimeAnalyzer.newAnalyzer(); //using for time calculation
 		ExecutorService executor = Executors.newFixedThreadPool(8); //8=Max concurrent threads
+		HttpInvoker httpInvoker = new HttpInvoker(); //thread-safe, so a single invoker(+ its connection pool) is shared by all tasks
 
 		List<String> urls = new ArrayList<>();
 		urls.add("http://google.com");
@@ -184,7 +186,7 @@ public class Part12 {
 
 		List<WebResponseChecker> callableList = new ArrayList<>();
 		for(String url:urls){
-			callableList.add(new WebResponseChecker(url));
+			callableList.add(new WebResponseChecker(httpInvoker, url));
 		}
 
 		//execute all callable-s and wait for the result
@@ -202,17 +204,17 @@ public class Part12 {
 	}
 
 	private static class WebResponseChecker implements Callable<String>{
-		HttpInvoker httpInvoker;
+		HttpRequestContext request;
 
-		WebResponseChecker(String url) throws Exception {
-			httpInvoker = new HttpInvoker(url);
+		WebResponseChecker(HttpInvoker httpInvoker, String url) {
+			request = httpInvoker.newRequest(url); //each task gets its own request/response context
 		}
 
 		@Override public String call() throws Exception {
-			String result = httpInvoker.getUrl()+" - "+httpInvoker.getHttpResponse().code();
+			String result = request.getUrl()+" - "+request.getHttpResponse().code();
 
 			//release http resource
-			httpInvoker.closeNReleaseResource();
+			request.closeNReleaseResource();
 
 			return result;
 		}
@@ -1,6 +1,7 @@
 package com.astronlab.tut.concurrency.advance.task;
 
 import com.astronlab.tut.utils.http.HttpInvoker;
+import com.astronlab.tut.utils.http.HttpRequestContext;
 
 import java.util.ArrayList;
 import java.util.Date;
@@ -15,6 +16,7 @@ import java.util.concurrent.Future;
 
 public class Answer2 {
 	private static List<String> urls = new ArrayList<>();
+	private static HttpInvoker httpInvoker = new HttpInvoker(); //shared by both sections
 
 	public static void main(String[] args) throws Exception {
 
@@ -52,7 +54,7 @@ public class Answer2 {
 
 			List<Future> futureList = new ArrayList<>();
 			for (String url : urls) {
-				Future future = executor.submit(new WebResponseChecker(url));
+				Future future = executor.submit(new WebResponseChecker(httpInvoker, url));
 				futureList.add(future);
 
 			}
@@ -69,7 +71,7 @@ public class Answer2 {
 	static class InvokeClassWithoutThreadPool {
 		public void run(List<String> urls) throws Exception {
 			for (String url : urls) {
-				WebResponseChecker wc = new WebResponseChecker(url);
+				WebResponseChecker wc = new WebResponseChecker(httpInvoker, url);
 				System.out.println(wc.call());
 
 			}
@@ -77,17 +79,17 @@ public class Answer2 {
 	}
 
 	static class WebResponseChecker implements Callable<String> {
-		HttpInvoker httpInvoker;
+		HttpRequestContext request;
 
-		WebResponseChecker(String url) throws Exception {
-			httpInvoker = new HttpInvoker(url);
+		WebResponseChecker(HttpInvoker httpInvoker, String url) {
+			request = httpInvoker.newRequest(url);
 		}
 
 		@Override public String call() throws Exception {
-			String result = httpInvoker.getUrl() + " - " + httpInvoker.getHttpResponse().code();
+			String result = request.getUrl() + " - " + request.getHttpResponse().code();
 
 			//release http resource
-			httpInvoker.closeNReleaseResource();
+			request.closeNReleaseResource();
 
 			return result;
 		}
@@ -1,6 +1,7 @@
 package com.astronlab.tut.concurrency.advance.task;
 
 import com.astronlab.tut.utils.http.HttpInvoker;
+import com.astronlab.tut.utils.http.HttpRequestContext;
 
 import java.io.BufferedWriter;
 import java.io.File;
@@ -19,6 +20,7 @@ import java.util.concurrent.Future;
 public class Answer3 {
 	private static List<String> urls = new ArrayList<>();
 	private static ExecutorService executor = Executors.newFixedThreadPool(8);
+	private static HttpInvoker httpInvoker = new HttpInvoker();
 
 	public static void main(String[] args) throws Exception {
 
@@ -43,7 +45,7 @@ public class Answer3 {
 			List<Future> futureList1 = new ArrayList<>();
 
 			for (String url : urls) {
-				future =  executor.submit(new WebResponseChecker(url));
+				future =  executor.submit(new WebResponseChecker(httpInvoker, url));
 				futureList1.add(future);
 			}
 
@@ -82,20 +84,20 @@ public class Answer3 {
 	}
 
 	static class WebResponseChecker implements Callable<List> {
-		HttpInvoker httpInvoker;
+		HttpRequestContext request;
 
-		WebResponseChecker(String url) throws Exception {
-			httpInvoker = new HttpInvoker(url);
+		WebResponseChecker(HttpInvoker httpInvoker, String url) {
+			request = httpInvoker.newRequest(url);
 		}
 
 		@Override public List<String> call() throws Exception {
 			List<String> resultArr = new ArrayList<>();
-			String result = httpInvoker.getStringData();
+			String result = request.getStringData();
       resultArr.add(result);
-			resultArr.add(httpInvoker.getUrl());
+			resultArr.add(request.getUrl());
 
 			//release http resource
-			httpInvoker.closeNReleaseResource();
+			request.closeNReleaseResource();
 
 			return resultArr;
 		}
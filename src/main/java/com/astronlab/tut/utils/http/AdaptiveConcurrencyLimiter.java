@@ -0,0 +1,273 @@
+package com.astronlab.tut.utils.http;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Per host limit of the in-flight calls which adapts to the host (AIMD), see
+ * {@code InvokerConfig.setConcurrencyLimiter}. i.e. new AdaptiveConcurrencyLimiter().setLimits(4, 1, 256)
+ *
+ * - Additive increase: a fast enough successful call grows the host's limit by 1/limit, i.e. by about one per
+ *   round trip of a fully used window. The limit only grows while at least half of it is in use.
+ * - Multiplicative decrease: a failure, a 429/5xx status or a smoothed round trip slower than
+ *   {@code rttTolerance} times the host's fastest recent one shrinks it by {@code backoffRatio}, at most once
+ *   per round trip.
+ *
+ * Calls over the limit wait in a FIFO queue before they reach the dispatcher; async ones don't hold a thread.
+ * A call is in flight until its response headers (or the decoded value of async decoding calls) arrive.
+ * Since the dispatcher still caps calls per host, raise {@code setMaxRequests} above the expected limits.
+ */
+public class AdaptiveConcurrencyLimiter {
+    private static final int RTT_RESET_SAMPLES = 1000;
+    private static final double RTT_SMOOTHING = 0.2;
+
+    private int initialLimit = 8, minLimit = 1, maxLimit = 256;
+    private double backoffRatio = 0.9, rttTolerance = 2;
+    private final ConcurrentMap<String, HostLimit> hostLimits = new ConcurrentHashMap<>();
+
+    public AdaptiveConcurrencyLimiter setLimits(int initialLimit, int minLimit, int maxLimit) {
+        if (minLimit < 1 || initialLimit < minLimit || maxLimit < initialLimit) {
+            throw new IllegalArgumentException("limits must satisfy 1 <= min <= initial <= max");
+        }
+        this.initialLimit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+
+        return this;
+    }
+
+    /**
+     * @param backoffRatio multiplier(0 to 1) of the limit on a drop
+     * @return
+     */
+    public AdaptiveConcurrencyLimiter setBackoffRatio(double backoffRatio) {
+        this.backoffRatio = backoffRatio;
+
+        return this;
+    }
+
+    /**
+     * @param rttTolerance round trips slower than this multiple of the fastest recent one count as a drop
+     * @return
+     */
+    public AdaptiveConcurrencyLimiter setRttTolerance(double rttTolerance) {
+        this.rttTolerance = rttTolerance;
+
+        return this;
+    }
+
+    /**
+     * @return current limit of the host, the initial limit if it hasn't been called yet
+     */
+    public int getLimit(String host) {
+        HostLimit hostLimit = hostLimits.get(host);
+
+        return hostLimit == null ? initialLimit : hostLimit.getLimit();
+    }
+
+    public int getInFlight(String host) {
+        HostLimit hostLimit = hostLimits.get(host);
+
+        return hostLimit == null ? 0 : hostLimit.getInFlight();
+    }
+
+    /**
+     * @return snapshot of every known host's current limit
+     */
+    public Map<String, Integer> getLimits() {
+        Map<String, Integer> limits = new TreeMap<>();
+        for (Map.Entry<String, HostLimit> entry : hostLimits.entrySet()) {
+            limits.put(entry.getKey(), entry.getValue().getLimit());
+        }
+
+        return limits;
+    }
+
+    Permit acquire(String host) throws InterruptedIOException {
+        CompletableFuture<Permit> permit = acquireAsync(host);
+        try {
+            return permit.get();
+        } catch (InterruptedException e) {
+            permit.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a concurrency permit");
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    CompletableFuture<Permit> acquireAsync(String host) {
+        return getHostLimit(host).acquire();
+    }
+
+    /**
+     * @return a permit if the host is under its limit and nobody is waiting, null otherwise
+     */
+    Permit tryAcquire(String host) {
+        return getHostLimit(host).tryAcquire();
+    }
+
+    private HostLimit getHostLimit(String host) {
+        HostLimit hostLimit = hostLimits.get(host);
+        if (hostLimit == null) {
+            HostLimit newLimit = new HostLimit();
+            hostLimit = hostLimits.putIfAbsent(host, newLimit);
+            if (hostLimit == null) {
+                hostLimit = newLimit;
+            }
+        }
+
+        return hostLimit;
+    }
+
+    static boolean isDropped(int code) {
+        return code == 429 || code >= 500;
+    }
+
+    /**
+     * One in-flight call, released exactly once with its outcome
+     */
+    class Permit {
+        private final HostLimit hostLimit;
+        private final long startTime = System.nanoTime();
+        private boolean released;
+
+        Permit(HostLimit hostLimit) {
+            this.hostLimit = hostLimit;
+        }
+
+        void onSuccess() {
+            release(Outcome.SUCCESS);
+        }
+
+        void onResponse(int code) {
+            release(isDropped(code) ? Outcome.DROPPED : Outcome.SUCCESS);
+        }
+
+        void onFailure() {
+            release(Outcome.DROPPED);
+        }
+
+        /**
+         * For calls which ended without a verdict (i.e. cancelled)
+         */
+        void onIgnored() {
+            release(Outcome.IGNORED);
+        }
+
+        private void release(Outcome outcome) {
+            synchronized (this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+            }
+            hostLimit.release(System.nanoTime() - startTime, outcome);
+        }
+    }
+
+    private enum Outcome {SUCCESS, DROPPED, IGNORED}
+
+    private class HostLimit {
+        //guarded by this
+        private double limit = initialLimit;
+        private int inFlight;
+        private long minRtt = Long.MAX_VALUE, smoothedRtt, lastDecreaseTime;
+        private int rttSamples;
+        private final ArrayDeque<CompletableFuture<Permit>> waiters = new ArrayDeque<>();
+
+        synchronized int getLimit() {
+            return (int) limit;
+        }
+
+        synchronized int getInFlight() {
+            return inFlight;
+        }
+
+        CompletableFuture<Permit> acquire() {
+            CompletableFuture<Permit> permit = new CompletableFuture<>();
+            synchronized (this) {
+                if (inFlight >= (int) limit) {
+                    waiters.add(permit);
+                    return permit;
+                }
+                inFlight++;
+            }
+            permit.complete(new Permit(this));
+
+            return permit;
+        }
+
+        Permit tryAcquire() {
+            synchronized (this) {
+                if (inFlight >= (int) limit || !waiters.isEmpty()) {
+                    return null;
+                }
+                inFlight++;
+            }
+
+            return new Permit(this);
+        }
+
+        void release(long rtt, Outcome outcome) {
+            List<CompletableFuture<Permit>> granted = new ArrayList<>();
+            synchronized (this) {
+                inFlight--;
+                if (outcome == Outcome.SUCCESS) {
+                    onSample(rtt);
+                } else if (outcome == Outcome.DROPPED) {
+                    decrease();
+                }
+
+                while (inFlight < (int) limit && !waiters.isEmpty()) {
+                    granted.add(waiters.poll());
+                    inFlight++;
+                }
+            }
+
+            //complete outside of the lock, the waiters might go on with the call right here
+            for (CompletableFuture<Permit> waiter : granted) {
+                Permit permit = new Permit(this);
+                if (!waiter.complete(permit)) {
+                    permit.onIgnored(); //cancelled while waiting
+                }
+            }
+        }
+
+        private void onSample(long rtt) {
+            //forget the fastest round trip now and then, so the baseline follows the host's changes
+            if (++rttSamples >= RTT_RESET_SAMPLES) {
+                rttSamples = 0;
+                minRtt = Long.MAX_VALUE;
+            }
+            minRtt = Math.min(minRtt, rtt);
+            smoothedRtt = smoothedRtt == 0 ? rtt : (long) (smoothedRtt * (1 - RTT_SMOOTHING) + rtt * RTT_SMOOTHING);
+
+            if (smoothedRtt > rttTolerance * minRtt) {
+                decrease();
+            } else if (inFlight + 1 >= limit / 2) {
+                limit = Math.min(maxLimit, limit + 1 / limit);
+            }
+        }
+
+        /**
+         * At most once per round trip, the calls which were already in flight shouldn't shrink it again
+         */
+        private void decrease() {
+            long now = System.nanoTime();
+            if (lastDecreaseTime != 0 && now - lastDecreaseTime < smoothedRtt) {
+                return;
+            }
+            lastDecreaseTime = now;
+            limit = Math.max(minLimit, limit * backoffRatio);
+        }
+    }
+}
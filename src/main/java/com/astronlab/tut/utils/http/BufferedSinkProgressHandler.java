@@ -4,41 +4,96 @@ import okio.*;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Upload progress handler. Writes only update counters; the clock is read once every {@code clockCheckBytes}
+ * written and listeners are notified at most once per {@code speedUpdateDelay}, so small writes
+ * (writeByte, writeShort etc.) neither allocate nor poll the clock.
+ */
 public class BufferedSinkProgressHandler implements BufferedSink {
 
-    private final BufferedSink delegateSink;
-    private long amountComplete = 0, totalTime = 0;
-    private long segmentStartTime = System.currentTimeMillis();
+    private BufferedSink delegateSink;
+    private long amountComplete = 0, bytesSinceClockCheck = 0;
+    private long startTime = System.nanoTime();
+    private long lastUpdateTime = startTime;
+    private SpeedMeter speedMeter = new SpeedMeter(startTime, 3000);
     private boolean closeUpload = false;
-    private long speedUpdateDelay = 1000;
+    private long speedUpdateDelayNanos = TimeUnit.MILLISECONDS.toNanos(1000);
+    private long clockCheckBytes = 64 * 1024;
     private IHttpProgressListener httpProgressListener;
+    private ITransferProgressListener progressListener;
 
     public BufferedSinkProgressHandler(BufferedSink sink) {
         this.delegateSink = sink;
     }
 
+    /**
+     * For request bodies whose handler has to be handed out before the sink exists, see {@code wrap}
+     */
+    BufferedSinkProgressHandler() {
+    }
+
+    /**
+     * (Re)attaches the handler to a request body sink and restarts the counters, so a body written again
+     * (i.e. on retry/redirect) reports its progress from the start.
+     */
+    BufferedSinkProgressHandler wrap(BufferedSink sink) {
+        delegateSink = sink;
+        amountComplete = 0;
+        bytesSinceClockCheck = 0;
+        startTime = System.nanoTime();
+        lastUpdateTime = startTime;
+        speedMeter = new SpeedMeter(startTime, 3000);
+
+        return this;
+    }
+
     public BufferedSinkProgressHandler setClosed(boolean isClosed) {
         closeUpload = isClosed;
 
         return this;
     }
 
+    /**
+     * @param delay in milliseconds
+     * @return
+     */
     public BufferedSinkProgressHandler speedUpdateDelay(long delay) {
-        speedUpdateDelay = delay;
+        speedUpdateDelayNanos = TimeUnit.MILLISECONDS.toNanos(delay);
+
+        return this;
+    }
+
+    public BufferedSinkProgressHandler clockCheckBytes(long bytes) {
+        clockCheckBytes = bytes;
 
         return this;
     }
 
+    /**
+     * Legacy listener, the value is the upload speed in KB/s (boxed once per notification)
+     *
+     * @param listener
+     * @return
+     */
     public BufferedSinkProgressHandler setListener(IHttpProgressListener listener) {
         httpProgressListener = listener;
 
         return this;
     }
 
+    public BufferedSinkProgressHandler setProgressListener(ITransferProgressListener listener) {
+        progressListener = listener;
+
+        return this;
+    }
+
     private BufferedSinkProgressHandler incrementByetCount(long len) {
         amountComplete += len;
+        bytesSinceClockCheck += len;
 
         return this;
     }
@@ -274,7 +329,7 @@ public class BufferedSinkProgressHandler implements BufferedSink {
     public BufferedSink writeDecimalLong(long v) throws IOException {
         if (!closeUpload) {
             delegateSink.writeDecimalLong(v);
-            incrementByetCount(Long.toString(v, 10).length());
+            incrementByetCount(decimalLength(v));
             notifyListener();
         } else {
             close();
@@ -287,7 +342,7 @@ public class BufferedSinkProgressHandler implements BufferedSink {
     public BufferedSink writeHexadecimalUnsignedLong(long v) throws IOException {
         if (!closeUpload) {
             delegateSink.writeHexadecimalUnsignedLong(v);
-            incrementByetCount(Long.toString(v, 16).length());
+            incrementByetCount(hexadecimalLength(v));
             notifyListener();
         } else {
             close();
@@ -296,6 +351,25 @@ public class BufferedSinkProgressHandler implements BufferedSink {
         return delegateSink;
     }
 
+    @Override
+    public int write(ByteBuffer source) throws IOException {
+        if (closeUpload) {
+            close();
+            return 0;
+        }
+
+        int written = delegateSink.write(source);
+        incrementByetCount(written);
+        notifyListener();
+
+        return written;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return delegateSink.isOpen();
+    }
+
     @Override
     public BufferedSink emitCompleteSegments() throws IOException {
         return delegateSink.emitCompleteSegments();
@@ -338,12 +412,39 @@ public class BufferedSinkProgressHandler implements BufferedSink {
     }
 
     private void notifyListener() {
-        long timeDiff = System.currentTimeMillis() - segmentStartTime;
+        if (bytesSinceClockCheck < clockCheckBytes) {
+            return;
+        }
+        bytesSinceClockCheck = 0;
+
+        long now = System.nanoTime();
+        if (now - lastUpdateTime >= speedUpdateDelayNanos) { // timeout(default 1s) check
+            lastUpdateTime = now;
+            double bytesPerSec = speedMeter.update(amountComplete, now);
+
+            if (progressListener != null) {
+                progressListener.onProgress(amountComplete, now - startTime, bytesPerSec);
+            }
+            if (httpProgressListener != null) {
+                httpProgressListener.notifyListener(IHttpProgressListener.Status.RUNNING, IHttpProgressListener.UpdateType.UPLOAD, bytesPerSec / 1024);
+            }
+        }
+    }
+
+    private static int decimalLength(long v) {
+        if (v == Long.MIN_VALUE) {
+            return 20;
+        }
 
-        if (timeDiff >= speedUpdateDelay && httpProgressListener != null) { // timeout(default 1s) check
-            totalTime += timeDiff;
-            httpProgressListener.notifyListener(IHttpProgressListener.Status.RUNNING, IHttpProgressListener.UpdateType.UPLOAD, (amountComplete / (totalTime * 1.024)));
-            segmentStartTime = System.currentTimeMillis();
+        int length = v < 0 ? 2 : 1;
+        for (long rest = Math.abs(v); rest >= 10; rest /= 10) {
+            length++;
         }
+
+        return length;
+    }
+
+    private static int hexadecimalLength(long v) {
+        return v == 0 ? 1 : (64 - Long.numberOfLeadingZeros(v) + 3) / 4;
     }
 }
\ No newline at end of file
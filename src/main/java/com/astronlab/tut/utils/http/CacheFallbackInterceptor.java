@@ -0,0 +1,31 @@
+package com.astronlab.tut.utils.http;
+
+import okhttp3.Interceptor;
+import okhttp3.Response;
+
+import java.io.IOException;
+
+/**
+ * Network interceptor that marks responses without any caching headers as fresh for a default time, so the
+ * disk cache can serve them on the next run. Responses carrying their own Cache-Control/Expires are left as
+ * they are; those with ETag/Last-Modified are revalidated with a conditional request once stale.
+ */
+class CacheFallbackInterceptor implements Interceptor {
+    private final int maxAgeSeconds;
+
+    CacheFallbackInterceptor(int maxAgeSeconds) {
+        this.maxAgeSeconds = maxAgeSeconds;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Response response = chain.proceed(chain.request());
+
+        if (!"GET".equals(chain.request().method()) || response.header("Cache-Control") != null
+                || response.header("Expires") != null || response.header("Pragma") != null) {
+            return response;
+        }
+
+        return response.newBuilder().header("Cache-Control", "max-age=" + maxAgeSeconds).build();
+    }
+}
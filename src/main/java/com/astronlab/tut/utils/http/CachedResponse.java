@@ -0,0 +1,58 @@
+package com.astronlab.tut.utils.http;
+
+import okhttp3.Headers;
+import okhttp3.MediaType;
+
+import java.nio.charset.Charset;
+
+/**
+ * Immutable, fully read response kept by {@code HotResponseCache}.
+ */
+public class CachedResponse {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final String url;
+    private final int code;
+    private final Headers headers;
+    private final MediaType contentType;
+    private final byte[] body;
+    final long expiresAt; //System.nanoTime() based
+
+    CachedResponse(String url, int code, Headers headers, MediaType contentType, byte[] body, long expiresAt) {
+        this.url = url;
+        this.code = code;
+        this.headers = headers;
+        this.contentType = contentType;
+        this.body = body;
+        this.expiresAt = expiresAt;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public int code() {
+        return code;
+    }
+
+    public Headers headers() {
+        return headers;
+    }
+
+    /**
+     * @return a copy of the body
+     */
+    public byte[] getData() {
+        return body.clone();
+    }
+
+    public String getStringData() {
+        Charset charset = contentType == null ? UTF_8 : contentType.charset(UTF_8);
+
+        return new String(body, charset);
+    }
+
+    int size() {
+        return body.length;
+    }
+}
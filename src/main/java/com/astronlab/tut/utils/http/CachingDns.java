@@ -0,0 +1,200 @@
+package com.astronlab.tut.utils.http;
+
+import okhttp3.Dns;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Caching resolver for the invoker's client, see {@code InvokerConfig.setDns}. i.e.
+ * new CachingDns().setTtl(60, TimeUnit.SECONDS).setNegativeTtl(5, TimeUnit.SECONDS)
+ *
+ * - Resolved addresses are kept for the TTL and failures (unknown hosts) for the negative TTL.
+ * - Once {@code refreshAhead} of an entry's TTL has passed, a lookup still gets the cached addresses and the host
+ *   is resolved again in the background, so busy hosts never wait for the resolver.
+ * - Concurrent lookups of the same uncached host share one resolution.
+ * - {@code prefetch} resolves a batch of hosts in parallel ahead of the requests ({@code fetchAll} does it).
+ */
+public class CachingDns implements Dns {
+    private final Dns delegate;
+    private final Executor resolver;
+    private long ttlNanos = TimeUnit.SECONDS.toNanos(60), negativeTtlNanos = TimeUnit.SECONDS.toNanos(5);
+    private double refreshAhead = 0.8;
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, CompletableFuture<Entry>> inFlight = new ConcurrentHashMap<>();
+
+    public CachingDns() {
+        this(Dns.SYSTEM, 8);
+    }
+
+    /**
+     * @param delegate        the actual resolver
+     * @param resolverThreads max parallel background/prefetch resolutions
+     */
+    public CachingDns(Dns delegate, int resolverThreads) {
+        this.delegate = delegate;
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(resolverThreads, resolverThreads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), HttpFutures.daemonThreadFactory("caching-dns"));
+        executor.allowCoreThreadTimeOut(true);
+        this.resolver = executor;
+    }
+
+    public CachingDns setTtl(long ttl, TimeUnit unit) {
+        ttlNanos = unit.toNanos(ttl);
+
+        return this;
+    }
+
+    public CachingDns setNegativeTtl(long ttl, TimeUnit unit) {
+        negativeTtlNanos = unit.toNanos(ttl);
+
+        return this;
+    }
+
+    /**
+     * @param refreshAhead fraction(0 to 1) of the TTL after which a hit triggers a background refresh,
+     *                     1 disables refreshing ahead
+     * @return
+     */
+    public CachingDns setRefreshAhead(double refreshAhead) {
+        this.refreshAhead = refreshAhead;
+
+        return this;
+    }
+
+    @Override
+    public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+        Entry entry = entries.get(hostname);
+        long now = System.nanoTime();
+
+        if (entry == null || now - entry.expiresAt >= 0) {
+            entry = await(hostname, resolve(hostname, false));
+        } else if (entry.addresses != null && now - entry.refreshAt >= 0 && entry.refreshing.compareAndSet(false, true)) {
+            resolve(hostname, true);
+        }
+
+        if (entry.error != null) {
+            //a fresh exception per caller, the cached one is shared by every thread during the negative TTL
+            UnknownHostException error = new UnknownHostException(entry.error.getMessage());
+            error.initCause(entry.error);
+            throw error;
+        }
+
+        return entry.addresses;
+    }
+
+    /**
+     * Resolves the hosts which aren't cached yet, in parallel
+     *
+     * @param hostnames
+     * @return a future completed once all of them are resolved (or failed)
+     */
+    public CompletableFuture<Void> prefetch(Collection<String> hostnames) {
+        List<CompletableFuture<Entry>> lookups = new ArrayList<>();
+        long now = System.nanoTime();
+        for (String hostname : hostnames) {
+            Entry entry = entries.get(hostname);
+            if (entry == null || now - entry.expiresAt >= 0) {
+                lookups.add(resolve(hostname, true));
+            }
+        }
+
+        return CompletableFuture.allOf(lookups.toArray(new CompletableFuture<?>[lookups.size()]));
+    }
+
+    public void invalidate(String hostname) {
+        entries.remove(hostname);
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Single-flight resolution of the host, on the calling thread or on the resolver threads
+     */
+    private CompletableFuture<Entry> resolve(final String hostname, boolean inBackground) {
+        final CompletableFuture<Entry> lookup = new CompletableFuture<>();
+        CompletableFuture<Entry> existingLookup = inFlight.putIfAbsent(hostname, lookup);
+        if (existingLookup != null) {
+            return existingLookup;
+        }
+
+        Runnable task = new Runnable() {
+            @Override
+            public void run() {
+                Entry entry = load(hostname);
+                //a failed refresh keeps serving the addresses it was about to replace
+                Entry previous = entries.get(hostname);
+                if (entry.error == null || previous == null || previous.addresses == null
+                        || System.nanoTime() - previous.expiresAt >= 0) {
+                    entries.put(hostname, entry);
+                } else {
+                    previous.refreshing.set(false);
+                }
+                inFlight.remove(hostname, lookup);
+                lookup.complete(entry);
+            }
+        };
+
+        if (inBackground) {
+            resolver.execute(task);
+        } else {
+            task.run();
+        }
+
+        return lookup;
+    }
+
+    private Entry load(String hostname) {
+        long now = System.nanoTime();
+        try {
+            return new Entry(delegate.lookup(hostname), null, now + ttlNanos,
+                    now + (long) (ttlNanos * refreshAhead));
+        } catch (UnknownHostException e) {
+            return new Entry(null, e, now + negativeTtlNanos, Long.MAX_VALUE);
+        } catch (RuntimeException e) {
+            UnknownHostException error = new UnknownHostException("Unable to resolve " + hostname);
+            error.initCause(e);
+            return new Entry(null, error, now + negativeTtlNanos, Long.MAX_VALUE);
+        }
+    }
+
+    private static Entry await(String hostname, CompletableFuture<Entry> lookup) throws UnknownHostException {
+        try {
+            return lookup.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UnknownHostException("Interrupted while resolving " + hostname);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause()); //the lookup never fails, errors are entries too
+        }
+    }
+
+    private static class Entry {
+        final List<InetAddress> addresses;
+        final UnknownHostException error;
+        final long expiresAt, refreshAt;
+        final AtomicBoolean refreshing = new AtomicBoolean();
+
+        Entry(List<InetAddress> addresses, UnknownHostException error, long expiresAt, long refreshAt) {
+            this.addresses = addresses;
+            this.error = error;
+            this.expiresAt = expiresAt;
+            this.refreshAt = refreshAt;
+        }
+    }
+}
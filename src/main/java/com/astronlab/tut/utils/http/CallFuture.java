@@ -0,0 +1,93 @@
+package com.astronlab.tut.utils.http;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Bridges OkHttp's {@code Call.enqueue} callback to a {@code CompletableFuture}. The response (or the
+ * decoded value) is completed on the dispatcher thread and cancelling the future cancels the call.
+ */
+class CallFuture<T> extends CompletableFuture<T> implements Callback {
+    private final Call call;
+    private final IResponseDecoder<T> decoder;
+    private final HttpRequestContext context;
+
+    CallFuture(Call call, IResponseDecoder<T> decoder, HttpRequestContext context) {
+        this.call = call;
+        this.decoder = decoder;
+        this.context = context;
+    }
+
+    Call getCall() {
+        return call;
+    }
+
+    CallFuture<T> enqueue() {
+        if (!completeIfCancelled()) {
+            call.enqueue(this);
+        }
+
+        return this;
+    }
+
+    /**
+     * A call might be cancelled while it waits for its rate/concurrency permit, it mustn't be sent afterwards
+     *
+     * @return true if the future is already done or its call has been cancelled (the future fails then)
+     */
+    boolean completeIfCancelled() {
+        if (isDone()) {
+            return true;
+        }
+        if (call.isCanceled()) {
+            completeExceptionally(new IOException("Canceled"));
+            return true;
+        }
+
+        return false;
+    }
+
+    @Override
+    public void onFailure(Call call, IOException e) {
+        completeExceptionally(e);
+    }
+
+    @Override
+    public void onResponse(Call call, Response response) throws IOException {
+        if (context != null) {
+            response = context.onResponse(response);
+        }
+
+        if (decoder == null) {
+            //un-decoded response is handed over as it is, so close it if nobody is waiting for it anymore
+            if (!complete(castResponse(response))) {
+                response.body().close();
+            }
+            return;
+        }
+
+        try {
+            complete(decoder.decode(response));
+        } catch (Exception e) {
+            completeExceptionally(e);
+        } finally {
+            response.body().close();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private T castResponse(Response response) {
+        return (T) response;
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        call.cancel();
+
+        return super.cancel(mayInterruptIfRunning);
+    }
+}
@@ -0,0 +1,214 @@
+package com.astronlab.tut.utils.http;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntPredicate;
+
+/**
+ * Per host circuit breaker, see {@code InvokerConfig.setCircuitBreaker}. i.e.
+ * new CircuitBreaker().setFailureRateThreshold(0.5).setOpenDuration(30, TimeUnit.SECONDS)
+ *
+ * - CLOSED: calls pass and their outcome is recorded in a rolling window. Once the window holds at least
+ *   {@code minimumCalls} calls and the failure rate reaches the threshold, the circuit opens.
+ * - OPEN: calls fail immediately with {@code CircuitOpenException} until the open duration has passed.
+ * - HALF_OPEN: up to {@code halfOpenCalls} trial calls pass; the circuit closes if all of them succeed and
+ *   opens again on the first failure.
+ *
+ * Connection failures, timeouts and the failure statuses (5xx by default) count as failures; cancelled calls
+ * don't count at all. A breaker may be shared by multiple invokers.
+ */
+public class CircuitBreaker {
+    public enum State {CLOSED, OPEN, HALF_OPEN}
+
+    private static final int WINDOW_BUCKETS = 10;
+
+    private double failureRateThreshold = 0.5;
+    private int minimumCalls = 10, halfOpenCalls = 1;
+    private long windowNanos = TimeUnit.SECONDS.toNanos(10), openNanos = TimeUnit.SECONDS.toNanos(30);
+
+    private IntPredicate failureStatus = new IntPredicate() {
+        @Override
+        public boolean test(int code) {
+            return code >= 500;
+        }
+    };
+
+    private final ConcurrentMap<String, HostCircuit> circuits = new ConcurrentHashMap<>();
+
+    /**
+     * @param threshold failure rate(0 to 1) which opens the circuit
+     * @return
+     */
+    public CircuitBreaker setFailureRateThreshold(double threshold) {
+        this.failureRateThreshold = threshold;
+
+        return this;
+    }
+
+    public CircuitBreaker setMinimumCalls(int minimumCalls) {
+        this.minimumCalls = minimumCalls;
+
+        return this;
+    }
+
+    public CircuitBreaker setWindow(long window, TimeUnit unit) {
+        this.windowNanos = unit.toNanos(window);
+
+        return this;
+    }
+
+    public CircuitBreaker setOpenDuration(long duration, TimeUnit unit) {
+        this.openNanos = unit.toNanos(duration);
+
+        return this;
+    }
+
+    public CircuitBreaker setHalfOpenCalls(int halfOpenCalls) {
+        this.halfOpenCalls = halfOpenCalls;
+
+        return this;
+    }
+
+    public CircuitBreaker setFailureStatus(IntPredicate failureStatus) {
+        this.failureStatus = failureStatus;
+
+        return this;
+    }
+
+    public State getState(String host) {
+        HostCircuit circuit = circuits.get(host);
+
+        return circuit == null ? State.CLOSED : circuit.getState();
+    }
+
+    boolean isFailure(int code) {
+        return failureStatus.test(code);
+    }
+
+    HostCircuit circuit(String host) {
+        HostCircuit circuit = circuits.get(host);
+        if (circuit == null) {
+            HostCircuit newCircuit = new HostCircuit();
+            circuit = circuits.putIfAbsent(host, newCircuit);
+            if (circuit == null) {
+                circuit = newCircuit;
+            }
+        }
+
+        return circuit;
+    }
+
+    /**
+     * State of one host. Calls to a host are serialized here only for a few field updates, the rolling window
+     * is a ring of {@code WINDOW_BUCKETS} time slices.
+     */
+    class HostCircuit {
+        private final int[] calls = new int[WINDOW_BUCKETS], failures = new int[WINDOW_BUCKETS];
+        private final long[] bucketEpochs = new long[WINDOW_BUCKETS];
+        private State state = State.CLOSED;
+        private long openedAt;
+        private int trialCalls, trialSuccesses;
+
+        synchronized State getState() {
+            return state;
+        }
+
+        /**
+         * @return remaining open time in milliseconds if the call has to be rejected, -1 if it may pass
+         */
+        synchronized long tryAcquire() {
+            long now = System.nanoTime();
+            if (state == State.OPEN) {
+                long remaining = openNanos - (now - openedAt);
+                if (remaining > 0) {
+                    return TimeUnit.NANOSECONDS.toMillis(remaining);
+                }
+                state = State.HALF_OPEN;
+                trialCalls = 0;
+                trialSuccesses = 0;
+            }
+
+            if (state == State.HALF_OPEN) {
+                if (trialCalls >= halfOpenCalls) {
+                    return 0;
+                }
+                trialCalls++;
+            }
+
+            return -1;
+        }
+
+        synchronized void onSuccess() {
+            if (state == State.HALF_OPEN) {
+                if (++trialSuccesses >= halfOpenCalls) {
+                    state = State.CLOSED;
+                    clearWindow();
+                }
+                return;
+            }
+            record(false);
+        }
+
+        synchronized void onFailure() {
+            if (state == State.HALF_OPEN) {
+                open();
+                return;
+            }
+            record(true);
+
+            int totalCalls = 0, totalFailures = 0;
+            long epoch = System.nanoTime() / bucketNanos();
+            for (int i = 0; i < WINDOW_BUCKETS; i++) {
+                if (epoch - bucketEpochs[i] < WINDOW_BUCKETS) {
+                    totalCalls += calls[i];
+                    totalFailures += failures[i];
+                }
+            }
+            if (state == State.CLOSED && totalCalls >= minimumCalls
+                    && totalFailures >= failureRateThreshold * totalCalls) {
+                open();
+            }
+        }
+
+        /**
+         * For calls which ended without a verdict (i.e. cancelled), gives back a half-open trial slot
+         */
+        synchronized void onIgnored() {
+            if (state == State.HALF_OPEN && trialCalls > 0) {
+                trialCalls--;
+            }
+        }
+
+        private void open() {
+            state = State.OPEN;
+            openedAt = System.nanoTime();
+            clearWindow();
+        }
+
+        private void record(boolean failure) {
+            long epoch = System.nanoTime() / bucketNanos();
+            int index = (int) (epoch % WINDOW_BUCKETS);
+            if (bucketEpochs[index] != epoch) {
+                bucketEpochs[index] = epoch;
+                calls[index] = 0;
+                failures[index] = 0;
+            }
+            calls[index]++;
+            if (failure) {
+                failures[index]++;
+            }
+        }
+
+        private void clearWindow() {
+            for (int i = 0; i < WINDOW_BUCKETS; i++) {
+                calls[i] = 0;
+                failures[i] = 0;
+            }
+        }
+
+        private long bucketNanos() {
+            return Math.max(1, windowNanos / WINDOW_BUCKETS);
+        }
+    }
+}
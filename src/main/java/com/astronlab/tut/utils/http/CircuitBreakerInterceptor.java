@@ -0,0 +1,56 @@
+package com.astronlab.tut.utils.http;
+
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.IOException;
+
+/**
+ * Guards every call (every retry attempt as well) with the host's circuit of a {@code CircuitBreaker}.
+ */
+class CircuitBreakerInterceptor implements StagedInterceptor {
+    private final CircuitBreaker breaker;
+
+    CircuitBreakerInterceptor(CircuitBreaker breaker) {
+        this.breaker = breaker;
+    }
+
+    @Override
+    public int stage() {
+        return STAGE_CIRCUIT_BREAKER;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        CircuitBreaker.HostCircuit circuit = breaker.circuit(request.url().host());
+
+        long retryAfter = circuit.tryAcquire();
+        if (retryAfter >= 0) {
+            throw new CircuitOpenException(request.url().host(), retryAfter);
+        }
+
+        Response response;
+        try {
+            response = chain.proceed(request);
+        } catch (IOException e) {
+            if (chain.call().isCanceled()) {
+                circuit.onIgnored();
+            } else {
+                circuit.onFailure();
+            }
+            throw e;
+        } catch (RuntimeException e) {
+            circuit.onIgnored();
+            throw e;
+        }
+
+        if (breaker.isFailure(response.code())) {
+            circuit.onFailure();
+        } else {
+            circuit.onSuccess();
+        }
+
+        return response;
+    }
+}
@@ -0,0 +1,30 @@
+package com.astronlab.tut.utils.http;
+
+import java.io.IOException;
+
+/**
+ * Thrown instead of calling a host whose circuit is open, see {@code CircuitBreaker}. It isn't retried.
+ */
+public class CircuitOpenException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final String host;
+    private final long retryAfterMillis;
+
+    public CircuitOpenException(String host, long retryAfterMillis) {
+        super("Circuit of " + host + " is open, retry after " + retryAfterMillis + " ms");
+        this.host = host;
+        this.retryAfterMillis = retryAfterMillis;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * @return time left until a trial call is allowed, 0 if the trial calls are already in progress
+     */
+    public long getRetryAfterMillis() {
+        return retryAfterMillis;
+    }
+}
@@ -0,0 +1,215 @@
+package com.astronlab.tut.utils.http;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Fans the events of a call out to multiple listeners, since a client takes a single listener factory.
+ */
+class CompositeEventListener extends EventListener {
+    private final EventListener[] listeners;
+
+    private CompositeEventListener(EventListener[] listeners) {
+        this.listeners = listeners;
+    }
+
+    /**
+     * Immutable set of listener factories, each registered under a key so that configuring a feature again
+     * replaces its previous factory.
+     */
+    static class Factory implements EventListener.Factory {
+        static final Factory EMPTY = new Factory(new LinkedHashMap<Object, EventListener.Factory>());
+
+        private final Map<Object, EventListener.Factory> factories;
+
+        private Factory(Map<Object, EventListener.Factory> factories) {
+            this.factories = factories;
+        }
+
+        Factory with(Object key, EventListener.Factory factory) {
+            Map<Object, EventListener.Factory> copy = new LinkedHashMap<>(factories);
+            copy.put(key, factory);
+
+            return new Factory(copy);
+        }
+
+        @Override
+        public EventListener create(Call call) {
+            EventListener[] listeners = new EventListener[factories.size()];
+            int i = 0;
+            for (EventListener.Factory factory : factories.values()) {
+                listeners[i++] = factory.create(call);
+            }
+
+            return listeners.length == 1 ? listeners[0] : new CompositeEventListener(listeners);
+        }
+    }
+
+    @Override
+    public void callStart(Call call) {
+        for (EventListener listener : listeners) {
+            listener.callStart(call);
+        }
+    }
+
+    @Override
+    public void dnsStart(Call call, String domainName) {
+        for (EventListener listener : listeners) {
+            listener.dnsStart(call, domainName);
+        }
+    }
+
+    @Override
+    public void dnsEnd(Call call, String domainName, List<InetAddress> inetAddressList) {
+        for (EventListener listener : listeners) {
+            listener.dnsEnd(call, domainName, inetAddressList);
+        }
+    }
+
+    @Override
+    public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+        for (EventListener listener : listeners) {
+            listener.connectStart(call, inetSocketAddress, proxy);
+        }
+    }
+
+    @Override
+    public void secureConnectStart(Call call) {
+        for (EventListener listener : listeners) {
+            listener.secureConnectStart(call);
+        }
+    }
+
+    @Override
+    public void secureConnectEnd(Call call, Handshake handshake) {
+        for (EventListener listener : listeners) {
+            listener.secureConnectEnd(call, handshake);
+        }
+    }
+
+    @Override
+    public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol) {
+        for (EventListener listener : listeners) {
+            listener.connectEnd(call, inetSocketAddress, proxy, protocol);
+        }
+    }
+
+    @Override
+    public void connectFailed(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol,
+                              IOException ioe) {
+        for (EventListener listener : listeners) {
+            listener.connectFailed(call, inetSocketAddress, proxy, protocol, ioe);
+        }
+    }
+
+    @Override
+    public void connectionAcquired(Call call, Connection connection) {
+        for (EventListener listener : listeners) {
+            listener.connectionAcquired(call, connection);
+        }
+    }
+
+    @Override
+    public void connectionReleased(Call call, Connection connection) {
+        for (EventListener listener : listeners) {
+            listener.connectionReleased(call, connection);
+        }
+    }
+
+    @Override
+    public void requestHeadersStart(Call call) {
+        for (EventListener listener : listeners) {
+            listener.requestHeadersStart(call);
+        }
+    }
+
+    @Override
+    public void requestHeadersEnd(Call call, Request request) {
+        for (EventListener listener : listeners) {
+            listener.requestHeadersEnd(call, request);
+        }
+    }
+
+    @Override
+    public void requestBodyStart(Call call) {
+        for (EventListener listener : listeners) {
+            listener.requestBodyStart(call);
+        }
+    }
+
+    @Override
+    public void requestBodyEnd(Call call, long byteCount) {
+        for (EventListener listener : listeners) {
+            listener.requestBodyEnd(call, byteCount);
+        }
+    }
+
+    @Override
+    public void requestFailed(Call call, IOException ioe) {
+        for (EventListener listener : listeners) {
+            listener.requestFailed(call, ioe);
+        }
+    }
+
+    @Override
+    public void responseHeadersStart(Call call) {
+        for (EventListener listener : listeners) {
+            listener.responseHeadersStart(call);
+        }
+    }
+
+    @Override
+    public void responseHeadersEnd(Call call, Response response) {
+        for (EventListener listener : listeners) {
+            listener.responseHeadersEnd(call, response);
+        }
+    }
+
+    @Override
+    public void responseBodyStart(Call call) {
+        for (EventListener listener : listeners) {
+            listener.responseBodyStart(call);
+        }
+    }
+
+    @Override
+    public void responseBodyEnd(Call call, long byteCount) {
+        for (EventListener listener : listeners) {
+            listener.responseBodyEnd(call, byteCount);
+        }
+    }
+
+    @Override
+    public void responseFailed(Call call, IOException ioe) {
+        for (EventListener listener : listeners) {
+            listener.responseFailed(call, ioe);
+        }
+    }
+
+    @Override
+    public void callEnd(Call call) {
+        for (EventListener listener : listeners) {
+            listener.callEnd(call);
+        }
+    }
+
+    @Override
+    public void callFailed(Call call, IOException ioe) {
+        for (EventListener listener : listeners) {
+            listener.callFailed(call, ioe);
+        }
+    }
+}
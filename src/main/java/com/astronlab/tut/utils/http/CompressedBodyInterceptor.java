@@ -0,0 +1,26 @@
+package com.astronlab.tut.utils.http;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.IOException;
+
+/**
+ * Network interceptor that labels a {@code CompressedRequestBody} with its Content-Encoding header, however the
+ * body was attached to the request (post, extra request configs, a retry or a redirect of it). A request that
+ * sets the header itself is left alone.
+ */
+class CompressedBodyInterceptor implements Interceptor {
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        if (!(request.body() instanceof CompressedRequestBody) || request.header("Content-Encoding") != null) {
+            return chain.proceed(request);
+        }
+
+        String encoding = ((CompressedRequestBody) request.body()).contentEncoding();
+        return chain.proceed(request.newBuilder().header("Content-Encoding", encoding).build());
+    }
+}
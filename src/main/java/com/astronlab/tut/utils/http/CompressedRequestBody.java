@@ -0,0 +1,80 @@
+package com.astronlab.tut.utils.http;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+import okio.DeflaterSink;
+import okio.ForwardingSink;
+import okio.GzipSink;
+import okio.Okio;
+import okio.Sink;
+
+import java.io.IOException;
+import java.util.zip.Deflater;
+
+/**
+ * Request body compressed on the fly: the wrapped body is written through a gzip/deflate sink straight into the
+ * request's sink, so neither the raw nor the compressed payload is staged in memory. The compressed size isn't
+ * known upfront, hence the request is sent chunked. Its Content-Encoding header is set by the invoker's
+ * {@code CompressedBodyInterceptor}.
+ */
+public final class CompressedRequestBody extends RequestBody {
+    private final RequestBody body;
+    private final RequestEntityBuilder.Compression compression;
+
+    CompressedRequestBody(RequestBody body, RequestEntityBuilder.Compression compression) {
+        this.body = body;
+        this.compression = compression;
+    }
+
+    /**
+     * @return value of the Content-Encoding header
+     */
+    public String contentEncoding() {
+        return compression.value;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return body.contentType();
+    }
+
+    @Override
+    public long contentLength() {
+        return -1;
+    }
+
+    @Override
+    public boolean isOneShot() {
+        return body.isOneShot();
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        //the request's sink is owned by OkHttp, closing the compressing sink must only finish the stream
+        Sink target = new ForwardingSink(sink) {
+            @Override
+            public void close() throws IOException {
+                flush();
+            }
+        };
+        Deflater deflater;
+        Sink compressingSink;
+        if (compression == RequestEntityBuilder.Compression.GZIP) {
+            GzipSink gzipSink = new GzipSink(target);
+            deflater = gzipSink.deflater();
+            compressingSink = gzipSink;
+        } else {
+            deflater = new Deflater();
+            compressingSink = new DeflaterSink(target, deflater);
+        }
+
+        BufferedSink compressedSink = Okio.buffer(compressingSink);
+        try {
+            body.writeTo(compressedSink);
+            compressedSink.close(); //writes the trailer
+        } finally {
+            deflater.end(); //already done by a successful close, frees the native memory if the write failed
+        }
+    }
+}
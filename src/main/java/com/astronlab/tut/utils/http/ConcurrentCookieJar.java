@@ -0,0 +1,138 @@
+package com.astronlab.tut.utils.http;
+
+import okhttp3.Cookie;
+import okhttp3.CookieJar;
+import okhttp3.HttpUrl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Thread safe cookie store of {@code HttpInvoker}. Cookies are grouped by the registrable domain of the host that
+ * set them (public suffix aware, i.e. www.example.com and example.com share a group but a.co.uk and b.co.uk don't)
+ * and indexed by their path, so a lookup only visits the cookies whose path could match. Only the cookies
+ * matching the request's url (host-only/domain attribute, path and scheme) are sent. Expired cookies are dropped
+ * lazily while they are being looked up.
+ */
+public class ConcurrentCookieJar implements CookieJar {
+    private static final int MAX_CACHED_HOST_KEYS = 4096;
+
+    //Store format: Map<Registrable_Domain, Map<Path, Map<Name_Domain_HostOnly_Secure, Cookie>>>
+    private final ConcurrentMap<String, ConcurrentMap<String, ConcurrentMap<String, Cookie>>> storedCookies =
+            new ConcurrentHashMap<>();
+    //host -> registrable domain, so that the key isn't re-computed(+ allocated) on every request
+    private final ConcurrentMap<String, String> hostKeys = new ConcurrentHashMap<>();
+
+    @Override
+    public void saveFromResponse(HttpUrl url, List<Cookie> cookies) {
+        ConcurrentMap<String, ConcurrentMap<String, Cookie>> domainCookies = getOrCreate(storedCookies, getHostKey(url));
+        long now = System.currentTimeMillis();
+
+        for (Cookie cookie : cookies) {
+            ConcurrentMap<String, Cookie> pathCookies = getOrCreate(domainCookies, cookie.path());
+            if (cookie.expiresAt() <= now) {
+                pathCookies.remove(getCookieKey(cookie)); // A server deletes a cookie by sending it expired
+            } else {
+                pathCookies.put(getCookieKey(cookie), cookie);
+            }
+        }
+    }
+
+    @Override
+    public List<Cookie> loadForRequest(HttpUrl url) {
+        Map<String, ConcurrentMap<String, Cookie>> domainCookies = storedCookies.get(getHostKey(url));
+        if (domainCookies == null) {
+            return Collections.emptyList();
+        }
+
+        List<Cookie> cookieList = null;
+        String urlPath = url.encodedPath();
+        long now = System.currentTimeMillis();
+
+        for (Map.Entry<String, ConcurrentMap<String, Cookie>> pathEntry : domainCookies.entrySet()) {
+            if (!isPathMatch(urlPath, pathEntry.getKey())) {
+                continue;
+            }
+
+            for (Map.Entry<String, Cookie> cookieEntry : pathEntry.getValue().entrySet()) {
+                Cookie cookie = cookieEntry.getValue();
+                if (cookie.expiresAt() <= now) {
+                    pathEntry.getValue().remove(cookieEntry.getKey(), cookie);
+                } else if (cookie.matches(url)) {
+                    if (cookieList == null) {
+                        cookieList = new ArrayList<>();
+                    }
+                    cookieList.add(cookie);
+                }
+            }
+        }
+
+        return cookieList == null ? Collections.<Cookie>emptyList() : cookieList;
+    }
+
+    public void clear() {
+        storedCookies.clear();
+    }
+
+    private static <V> ConcurrentMap<String, V> getOrCreate(ConcurrentMap<String, ConcurrentMap<String, V>> map,
+                                                           String key) {
+        ConcurrentMap<String, V> value = map.get(key);
+        if (value == null) {
+            ConcurrentMap<String, V> newValue = new ConcurrentHashMap<>();
+            value = map.putIfAbsent(key, newValue);
+            if (value == null) {
+                value = newValue;
+            }
+        }
+
+        return value;
+    }
+
+    private String getHostKey(HttpUrl url) {
+        String host = url.host();
+        String hostKey = hostKeys.get(host);
+
+        if (hostKey == null) {
+            hostKey = url.topPrivateDomain();
+            if (hostKey == null) {
+                hostKey = host; //ip address, localhost or a public suffix itself
+            }
+            if (hostKeys.size() >= MAX_CACHED_HOST_KEYS) {
+                hostKeys.clear();
+            }
+            hostKeys.put(host, hostKey);
+        }
+
+        return hostKey;
+    }
+
+    /**
+     * Same named cookies of different (sub)domains are different cookies, i.e. a host-only one of a.example.com
+     * and a domain one of example.com
+     */
+    private static String getCookieKey(Cookie cookie) {
+        return cookie.name() + ';' + cookie.domain() + (cookie.hostOnly() ? ";host" : "")
+                + (cookie.secure() ? ";secure" : "");
+    }
+
+    private static boolean isPathMatch(String urlPath, String cookiePath) {
+        if (urlPath.equals(cookiePath)) {
+            return true; // As in '/foo' matching '/foo'.
+        }
+
+        if (urlPath.startsWith(cookiePath)) {
+            if (cookiePath.endsWith("/")) {
+                return true; // As in '/' matching '/foo'.
+            }
+            if (urlPath.charAt(cookiePath.length()) == '/') {
+                return true; // As in '/foo' matching '/foo/bar'.
+            }
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,50 @@
+package com.astronlab.tut.utils.http;
+
+/**
+ * Snapshot of an invoker's connection pool, see {@code HttpInvoker.getConnectionPoolStats}.
+ */
+public class ConnectionPoolStats {
+    private final int idle, active;
+    private final long opened, closed;
+
+    ConnectionPoolStats(int idle, int active, long opened, long closed) {
+        this.idle = idle;
+        this.active = active;
+        this.opened = opened;
+        this.closed = closed;
+    }
+
+    /**
+     * @return pooled connections waiting for a call
+     */
+    public int getIdle() {
+        return idle;
+    }
+
+    /**
+     * @return pooled connections carrying at least one call
+     */
+    public int getActive() {
+        return active;
+    }
+
+    /**
+     * @return sockets opened since the pool was created
+     */
+    public long getOpened() {
+        return opened;
+    }
+
+    /**
+     * @return sockets closed since the pool was created: evicted by the pool (idle timeout/too many idle ones),
+     * closed by the server or dropped after a failure
+     */
+    public long getClosed() {
+        return closed;
+    }
+
+    @Override
+    public String toString() {
+        return "idle=" + idle + ", active=" + active + ", opened=" + opened + ", closed=" + closed;
+    }
+}
@@ -0,0 +1,143 @@
+package com.astronlab.tut.utils.http;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.EventListener;
+import okhttp3.Protocol;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Calls (streams, for HTTP/2) per connection of the invokers it's attached to, see
+ * {@code InvokerConfig.setStreamStats}. Connections whose socket is closed are dropped on the next
+ * {@code getConnections}; the rest are held weakly, so they don't outlive the pool either.
+ */
+public class ConnectionStreamStats {
+    private final Map<Connection, Counter> connections = Collections.synchronizedMap(
+            new WeakHashMap<Connection, Counter>());
+
+    private final EventListener.Factory listenerFactory = new EventListener.Factory() {
+        @Override
+        public EventListener create(Call call) {
+            return new EventListener() {
+                @Override
+                public void connectionAcquired(Call call, Connection connection) {
+                    counter(connection).acquired();
+                }
+
+                @Override
+                public void connectionReleased(Call call, Connection connection) {
+                    counter(connection).released();
+                }
+            };
+        }
+    };
+
+    EventListener.Factory getListenerFactory() {
+        return listenerFactory;
+    }
+
+    private Counter counter(Connection connection) {
+        synchronized (connections) {
+            Counter counter = connections.get(connection);
+            if (counter == null) {
+                counter = new Counter(connection.route().address().url().host(), connection.protocol());
+                connections.put(connection, counter);
+            }
+            return counter;
+        }
+    }
+
+    /**
+     * @return one snapshot per open connection
+     */
+    public List<Snapshot> getConnections() {
+        List<Snapshot> snapshots = new ArrayList<>();
+        synchronized (connections) {
+            Iterator<Map.Entry<Connection, Counter>> iterator = connections.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Connection, Counter> entry = iterator.next();
+                if (entry.getKey().socket().isClosed()) {
+                    iterator.remove(); //closed or evicted, its counts are stale
+                } else {
+                    snapshots.add(entry.getValue().snapshot());
+                }
+            }
+        }
+
+        return snapshots;
+    }
+
+    private static class Counter {
+        private final String host;
+        private final Protocol protocol;
+        //guarded by this
+        private int active, peak;
+        private long total;
+
+        Counter(String host, Protocol protocol) {
+            this.host = host;
+            this.protocol = protocol;
+        }
+
+        synchronized void acquired() {
+            active++;
+            total++;
+            peak = Math.max(peak, active);
+        }
+
+        synchronized void released() {
+            active--;
+        }
+
+        synchronized Snapshot snapshot() {
+            return new Snapshot(host, protocol, active, peak, total);
+        }
+    }
+
+    public static class Snapshot {
+        private final String host;
+        private final Protocol protocol;
+        private final int activeStreams, peakStreams;
+        private final long totalStreams;
+
+        Snapshot(String host, Protocol protocol, int activeStreams, int peakStreams, long totalStreams) {
+            this.host = host;
+            this.protocol = protocol;
+            this.activeStreams = activeStreams;
+            this.peakStreams = peakStreams;
+            this.totalStreams = totalStreams;
+        }
+
+        public String getHost() {
+            return host;
+        }
+
+        public Protocol getProtocol() {
+            return protocol;
+        }
+
+        public int getActiveStreams() {
+            return activeStreams;
+        }
+
+        public int getPeakStreams() {
+            return peakStreams;
+        }
+
+        public long getTotalStreams() {
+            return totalStreams;
+        }
+
+        @Override
+        public String toString() {
+            return host + " " + protocol + " active=" + activeStreams + ", peak=" + peakStreams
+                    + ", total=" + totalStreams;
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.astronlab.tut.utils.http;
+
+import javax.net.SocketFactory;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Plain socket factory which counts the sockets opened and closed through it. One instance belongs to one
+ * connection pool; OkHttp only pools connections of equal factories, so it must be shared, not re-created.
+ */
+class CountingSocketFactory extends SocketFactory {
+    private final AtomicLong opened = new AtomicLong(), closed = new AtomicLong();
+
+    long getOpened() {
+        return opened.get();
+    }
+
+    long getClosed() {
+        return closed.get();
+    }
+
+    @Override
+    public Socket createSocket() {
+        opened.incrementAndGet();
+
+        return new CountingSocket();
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        return connect(createSocket(), new InetSocketAddress(host, port), null);
+    }
+
+    @Override
+    public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+        return connect(createSocket(), new InetSocketAddress(host, port), new InetSocketAddress(localHost, localPort));
+    }
+
+    @Override
+    public Socket createSocket(InetAddress host, int port) throws IOException {
+        return connect(createSocket(), new InetSocketAddress(host, port), null);
+    }
+
+    @Override
+    public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort)
+            throws IOException {
+        return connect(createSocket(), new InetSocketAddress(address, port),
+                new InetSocketAddress(localAddress, localPort));
+    }
+
+    private static Socket connect(Socket socket, InetSocketAddress remote, InetSocketAddress local)
+            throws IOException {
+        try {
+            if (local != null) {
+                socket.bind(local);
+            }
+            socket.connect(remote);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+
+        return socket;
+    }
+
+    private class CountingSocket extends Socket {
+        private final AtomicBoolean closedOnce = new AtomicBoolean();
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (closedOnce.compareAndSet(false, true)) {
+                closed.incrementAndGet();
+            }
+            super.close();
+        }
+    }
+}
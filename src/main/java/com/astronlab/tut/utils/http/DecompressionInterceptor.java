@@ -0,0 +1,58 @@
+package com.astronlab.tut.utils.http;
+
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Okio;
+
+import java.io.IOException;
+
+/**
+ * Asks for gzip/deflate bodies and decodes them with a {@code ResponseDecompressor}. Setting the Accept-Encoding
+ * header here turns OkHttp's own transparent gzip off, so a body is decoded only once. Requests carrying their
+ * own Accept-Encoding or a Range header are left alone (the caller handles the encoding then), like OkHttp does.
+ */
+class DecompressionInterceptor implements StagedInterceptor {
+    private final ResponseDecompressor decompressor;
+
+    DecompressionInterceptor(ResponseDecompressor decompressor) {
+        this.decompressor = decompressor;
+    }
+
+    @Override
+    public int stage() {
+        return STAGE_DECOMPRESSION;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        if (request.header("Accept-Encoding") != null || request.header("Range") != null) {
+            return chain.proceed(request);
+        }
+
+        Response response = chain.proceed(request.newBuilder().header("Accept-Encoding", "gzip, deflate").build());
+        String encoding = response.header("Content-Encoding");
+        boolean gzip = "gzip".equalsIgnoreCase(encoding);
+        if (!gzip && !"deflate".equalsIgnoreCase(encoding) || !hasBody(response)) {
+            return response;
+        }
+
+        decompressor.onResponse();
+        ResponseBody body = response.body();
+        InflatingSource source = new InflatingSource(body.source(), gzip, decompressor);
+
+        return response.newBuilder()
+                .removeHeader("Content-Encoding")
+                .removeHeader("Content-Length")
+                .body(ResponseBody.create(body.contentType(), -1, Okio.buffer(source)))
+                .build();
+    }
+
+    private static boolean hasBody(Response response) {
+        int code = response.code();
+
+        return response.body() != null && !"HEAD".equals(response.request().method())
+                && (code >= 200 || code < 100) && code != 204 && code != 304;
+    }
+}
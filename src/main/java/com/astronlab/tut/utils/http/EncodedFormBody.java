@@ -0,0 +1,54 @@
+package com.astronlab.tut.utils.http;
+
+import okhttp3.FormBody;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ByteString;
+
+import java.io.IOException;
+
+/**
+ * Form body which is url-encoded only once: the encoded bytes are immutable and simply replayed
+ * on every {@code contentLength}/{@code writeTo} call (i.e. on retries and redirects).
+ */
+public final class EncodedFormBody extends RequestBody {
+    private final MediaType mediaType;
+    private final ByteString content;
+
+    EncodedFormBody(MediaType mediaType, ByteString content) {
+        this.mediaType = mediaType;
+        this.content = content;
+    }
+
+    static EncodedFormBody of(MediaType mediaType, FormBody formBody) {
+        Buffer buffer = new Buffer();
+        try {
+            formBody.writeTo(buffer);
+        } catch (IOException e) {
+            throw new AssertionError(e); // writing to an in-memory buffer doesn't fail
+        }
+
+        return new EncodedFormBody(mediaType, buffer.readByteString());
+    }
+
+    ByteString content() {
+        return content;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return mediaType;
+    }
+
+    @Override
+    public long contentLength() {
+        return content.size();
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+        sink.write(content);
+    }
+}
@@ -0,0 +1,104 @@
+package com.astronlab.tut.utils.http;
+
+import okhttp3.Dispatcher;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Handle of a running {@code HttpInvoker.fetchAll} batch. Results are handed out in completion order, so a slow
+ * url doesn't hold back the others. i.e.
+ *
+ * FetchResult result;
+ * while ((result = batch.take()) != null) {
+ *     System.out.println(result);
+ * }
+ *
+ * A single consumer thread is expected to take the results.
+ */
+public class FetchBatch {
+    private final Dispatcher dispatcher;
+    private final int size;
+    private final AtomicInteger pending;
+    private final BlockingQueue<FetchResult> results = new LinkedBlockingQueue<>();
+    private final ConcurrentLinkedQueue<CompletableFuture<?>> futures = new ConcurrentLinkedQueue<>();
+    private int taken = 0;
+
+    FetchBatch(Dispatcher dispatcher, int size) {
+        this.dispatcher = dispatcher;
+        this.size = size;
+        this.pending = new AtomicInteger(size);
+
+        if (size == 0) {
+            dispatcher.executorService().shutdown();
+        }
+    }
+
+    void add(CompletableFuture<?> future) {
+        futures.add(future);
+    }
+
+    void complete(FetchResult result) {
+        results.add(result);
+
+        if (pending.decrementAndGet() == 0) {
+            //let the batch's dispatcher threads die instead of idling for their keep-alive time
+            dispatcher.executorService().shutdown();
+        }
+    }
+
+    /**
+     * Waits for the next completed result.
+     *
+     * @return next result, or null once all the results have been taken
+     * @throws InterruptedException
+     */
+    public FetchResult take() throws InterruptedException {
+        if (taken == size) {
+            return null;
+        }
+        FetchResult result = results.take();
+        taken++;
+
+        return result;
+    }
+
+    /**
+     * @return next result, or null if none completed in time(or all have been taken already)
+     * @throws InterruptedException
+     */
+    public FetchResult poll(long timeout, TimeUnit unit) throws InterruptedException {
+        if (taken == size) {
+            return null;
+        }
+        FetchResult result = results.poll(timeout, unit);
+        if (result != null) {
+            taken++;
+        }
+
+        return result;
+    }
+
+    /**
+     * Cancels every request of the batch, including the ones still waiting for a rate/concurrency permit (those
+     * aren't in the dispatcher yet); they complete as failed results.
+     */
+    public void cancel() {
+        for (CompletableFuture<?> future : futures) {
+            future.cancel(true);
+        }
+        dispatcher.cancelAll();
+    }
+
+    public boolean isDone() {
+        return pending.get() == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+}
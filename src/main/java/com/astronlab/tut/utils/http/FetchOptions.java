@@ -0,0 +1,52 @@
+package com.astronlab.tut.utils.http;
+
+/**
+ * Settings of a {@code HttpInvoker.fetchAll} batch.
+ */
+public class FetchOptions {
+    private int maxConcurrency = 16;
+    private int maxConcurrencyPerHost = 4;
+    private boolean readBody = false;
+
+    /**
+     * @param maxConcurrency max in-flight requests of the whole batch (default 16)
+     * @return
+     */
+    public FetchOptions setMaxConcurrency(int maxConcurrency) {
+        this.maxConcurrency = maxConcurrency;
+
+        return this;
+    }
+
+    /**
+     * @param maxConcurrencyPerHost max in-flight requests to a single host (default 4)
+     * @return
+     */
+    public FetchOptions setMaxConcurrencyPerHost(int maxConcurrencyPerHost) {
+        this.maxConcurrencyPerHost = maxConcurrencyPerHost;
+
+        return this;
+    }
+
+    /**
+     * @param readBody whether the results should carry the response body as string, otherwise only the status
+     * @return
+     */
+    public FetchOptions setReadBody(boolean readBody) {
+        this.readBody = readBody;
+
+        return this;
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    public int getMaxConcurrencyPerHost() {
+        return maxConcurrencyPerHost;
+    }
+
+    public boolean isReadBody() {
+        return readBody;
+    }
+}
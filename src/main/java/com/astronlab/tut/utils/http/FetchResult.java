@@ -0,0 +1,49 @@
+package com.astronlab.tut.utils.http;
+
+/**
+ * Outcome of a single url of a {@code FetchBatch}: either a response code (+ body if requested) or an error.
+ */
+public class FetchResult {
+    private final String url;
+    private final int responseCode;
+    private final String body;
+    private final Throwable error;
+
+    FetchResult(String url, int responseCode, String body, Throwable error) {
+        this.url = url;
+        this.responseCode = responseCode;
+        this.body = body;
+        this.error = error;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * @return http status code, -1 if the request failed
+     */
+    public int getResponseCode() {
+        return responseCode;
+    }
+
+    /**
+     * @return response body if {@code FetchOptions.setReadBody} was set, otherwise null
+     */
+    public String getBody() {
+        return body;
+    }
+
+    public Throwable getError() {
+        return error;
+    }
+
+    public boolean isSuccessful() {
+        return error == null && responseCode >= 200 && responseCode < 300;
+    }
+
+    @Override
+    public String toString() {
+        return url + " - " + (error == null ? String.valueOf(responseCode) : error.toString());
+    }
+}
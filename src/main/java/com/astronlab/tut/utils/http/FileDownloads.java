@@ -0,0 +1,85 @@
+package com.astronlab.tut.utils.http;
+
+import okio.Buffer;
+import okio.BufferedSource;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * File writing helpers of the download methods. Data is moved from the network source to the file channel in
+ * bounded segments (okio's pooled segments are written straight to the channel), hence memory usage stays the
+ * same whatever the file size is.
+ */
+final class FileDownloads {
+    static final long SEGMENT_SIZE = 64 * 1024;
+
+    private FileDownloads() {}
+
+    /**
+     * Writes the whole source into a temporary "[file].part" file and renames it to the file on completion,
+     * so a half written file is never seen under the target name.
+     *
+     * @param source
+     * @param file
+     * @param syncToDisk fsync the data before the rename
+     * @return number of bytes written
+     * @throws IOException
+     */
+    static long writeToFile(BufferedSource source, File file, boolean syncToDisk) throws IOException {
+        Path target = file.getAbsoluteFile().toPath();
+        Path tempFile = target.resolveSibling(target.getFileName() + ".part");
+        long total = 0;
+        boolean completed = false;
+
+        try {
+            try (FileChannel channel = FileChannel.open(tempFile, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                total = transfer(source, channel);
+                if (syncToDisk) {
+                    channel.force(true);
+                }
+            }
+            moveAtomically(tempFile, target);
+            completed = true;
+        } finally {
+            if (!completed) {
+                Files.deleteIfExists(tempFile);
+            }
+        }
+
+        return total;
+    }
+
+    /**
+     * Copies the source to the channel's current position until the source is exhausted.
+     */
+    static long transfer(BufferedSource source, FileChannel channel) throws IOException {
+        OutputStream channelStream = Channels.newOutputStream(channel);
+        Buffer buffer = new Buffer();
+        long total = 0, read;
+
+        while ((read = source.read(buffer, SEGMENT_SIZE)) != -1) {
+            buffer.writeTo(channelStream);
+            total += read;
+        }
+
+        return total;
+    }
+
+    static void moveAtomically(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package com.astronlab.tut.utils.http;
+
+import okhttp3.FormBody;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.Buffer;
+import okio.ByteString;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reusable url-encoded form for high rate posting, where most of the params stay the same across requests.
+ * Fixed params are encoded once; on {@code build} only the variable params are encoded.
+ * i.e.
+ * FormBodyTemplate template = new FormBodyTemplate().addParam("user", "x").addVariableParam("page");
+ * context.getExtraRequestConfigs().post(template.build("2"));
+ *
+ * Params have to be added before it's shared; {@code build} can then be called from multiple threads.
+ */
+public class FormBodyTemplate {
+    private static final MediaType FORM_URLENCODED = MediaType.parse("application/x-www-form-urlencoded");
+
+    private final FormBody.Builder fixedParams = new FormBody.Builder();
+    private final List<String> variableNames = new ArrayList<>();
+    private volatile ByteString encodedFixedParams;
+
+    public synchronized FormBodyTemplate addParam(String name, String value) {
+        fixedParams.add(name, value);
+        encodedFixedParams = null;
+
+        return this;
+    }
+
+    public synchronized FormBodyTemplate addVariableParam(String name) {
+        variableNames.add(name);
+
+        return this;
+    }
+
+    /**
+     * @param values values of the variable params, in the order they were added
+     * @return an immutable, replayable body
+     */
+    public RequestBody build(String... values) {
+        if (values.length != variableNames.size()) {
+            throw new IllegalArgumentException("Expected " + variableNames.size() + " values but got " + values.length);
+        }
+
+        ByteString fixed = getEncodedFixedParams();
+        if (values.length == 0) {
+            return new EncodedFormBody(FORM_URLENCODED, fixed);
+        }
+
+        FormBody.Builder variableParams = new FormBody.Builder();
+        for (int i = 0; i < values.length; i++) {
+            variableParams.add(variableNames.get(i), values[i]);
+        }
+
+        Buffer buffer = new Buffer().write(fixed);
+        if (fixed.size() > 0) {
+            buffer.writeByte('&');
+        }
+        buffer.write(EncodedFormBody.of(FORM_URLENCODED, variableParams.build()).content());
+
+        return new EncodedFormBody(FORM_URLENCODED, buffer.readByteString());
+    }
+
+    private ByteString getEncodedFixedParams() {
+        ByteString encoded = encodedFixedParams;
+        if (encoded == null) {
+            synchronized (this) {
+                encoded = encodedFixedParams;
+                if (encoded == null) {
+                    encoded = EncodedFormBody.of(FORM_URLENCODED, fixedParams.build()).content();
+                    encodedFixedParams = encoded;
+                }
+            }
+        }
+
+        return encoded;
+    }
+}
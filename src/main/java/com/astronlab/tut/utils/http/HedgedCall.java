@@ -0,0 +1,207 @@
+package com.astronlab.tut.utils.http;
+
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@code CallFuture} which sends a second copy of the request if the first one is slower than the host's hedging
+ * delay (see {@code HedgingPolicy}). The first response wins and the other call is cancelled. It fails only when
+ * every sent call has failed. Cancelling the primary call (i.e. via abortConnection) cancels the hedge too.
+ * The hedge takes a rate token and a concurrency permit of the invoker's limiters when it's due; if they aren't
+ * available right away, it isn't sent at all.
+ */
+class HedgedCall<T> extends CallFuture<T> {
+    private final OkHttpClient client;
+    private final Request request;
+    private final HedgingPolicy policy;
+    private final RateLimiter rateLimiter;
+    private final AdaptiveConcurrencyLimiter concurrencyLimiter;
+    private final Call primary;
+    private final long startTime = System.nanoTime();
+
+    //guarded by this
+    private Call hedge;
+    private AdaptiveConcurrencyLimiter.Permit hedgePermit;
+    private long hedgeStartTime;
+    private int pendingCalls;
+    private boolean won;
+
+    /**
+     * @param rateLimiter        null if the invoker has none
+     * @param concurrencyLimiter null if the invoker has none
+     */
+    HedgedCall(OkHttpClient client, Request request, HedgingPolicy policy, RateLimiter rateLimiter,
+               AdaptiveConcurrencyLimiter concurrencyLimiter, IResponseDecoder<T> decoder, HttpRequestContext context) {
+        this(client, client.newCall(request), request, policy, rateLimiter, concurrencyLimiter, decoder, context);
+    }
+
+    private HedgedCall(OkHttpClient client, Call primary, Request request, HedgingPolicy policy,
+                       RateLimiter rateLimiter, AdaptiveConcurrencyLimiter concurrencyLimiter,
+                       IResponseDecoder<T> decoder, HttpRequestContext context) {
+        super(primary, decoder, context);
+        this.client = client;
+        this.request = request;
+        this.policy = policy;
+        this.rateLimiter = rateLimiter;
+        this.concurrencyLimiter = concurrencyLimiter;
+        this.primary = primary;
+    }
+
+    @Override
+    HedgedCall<T> enqueue() {
+        if (completeIfCancelled()) {
+            return this;
+        }
+        synchronized (this) {
+            pendingCalls = 1;
+        }
+        primary.enqueue(this);
+
+        long delay = policy.hedgeDelayNanos(request.url().host());
+        if (delay >= 0) {
+            HttpFutures.timer().schedule(new Runnable() {
+                @Override
+                public void run() {
+                    sendHedge();
+                }
+            }, delay, TimeUnit.NANOSECONDS);
+        }
+
+        return this;
+    }
+
+    private void sendHedge() {
+        if (isSettled()) {
+            return;
+        }
+
+        //a hedge is optional, so it never waits for the limiters
+        String host = request.url().host();
+        AdaptiveConcurrencyLimiter.Permit permit = concurrencyLimiter == null ? null
+                : concurrencyLimiter.tryAcquire(host);
+        if (concurrencyLimiter != null && permit == null || rateLimiter != null && !rateLimiter.tryAcquire(host)) {
+            if (permit != null) {
+                permit.onIgnored();
+            }
+            policy.onHedgeSkipped();
+            return;
+        }
+
+        Call call = null;
+        synchronized (this) {
+            if (!isSettled()) {
+                call = hedge = client.newCall(request);
+                hedgePermit = permit;
+                hedgeStartTime = System.nanoTime();
+                pendingCalls++;
+            }
+        }
+        if (call == null) {
+            if (permit != null) {
+                permit.onIgnored();
+            }
+            return;
+        }
+
+        policy.onHedgeSent();
+        call.enqueue(this);
+    }
+
+    private synchronized boolean isSettled() {
+        return won || pendingCalls == 0 || isDone() || primary.isCanceled();
+    }
+
+    /**
+     * Releases the hedge's concurrency permit with its outcome
+     *
+     * @param response null if the hedge call failed
+     */
+    private void onHedgeDone(Call call, Response response) {
+        AdaptiveConcurrencyLimiter.Permit permit;
+        synchronized (this) {
+            permit = hedgePermit;
+        }
+        if (permit == null) {
+            return;
+        }
+
+        if (response != null) {
+            permit.onResponse(response.code());
+        } else if (call.isCanceled()) {
+            permit.onIgnored();
+        } else {
+            permit.onFailure();
+        }
+    }
+
+    @Override
+    public void onResponse(Call call, Response response) throws IOException {
+        if (call != primary) {
+            onHedgeDone(call, response);
+        }
+
+        Call loser;
+        synchronized (this) {
+            pendingCalls--;
+            if (won) {
+                response.body().close();
+                return;
+            }
+            won = true;
+            loser = call == primary ? hedge : primary;
+        }
+
+        if (loser != null) {
+            loser.cancel();
+        }
+        if (call == primary) {
+            policy.recordLatency(request.url().host(), System.nanoTime() - startTime);
+        } else {
+            policy.recordLatency(request.url().host(), System.nanoTime() - hedgeStartTime);
+            policy.onHedgeWon();
+        }
+
+        super.onResponse(call, response);
+    }
+
+    @Override
+    public void onFailure(Call call, IOException e) {
+        if (call != primary) {
+            onHedgeDone(call, null);
+        }
+
+        boolean failed;
+        synchronized (this) {
+            pendingCalls--;
+            //an aborted primary call takes the hedge down with it
+            failed = !won && (pendingCalls == 0 || (call == primary && call.isCanceled()));
+        }
+
+        if (failed) {
+            cancelHedge();
+            super.onFailure(call, e);
+        }
+    }
+
+    private void cancelHedge() {
+        Call call;
+        synchronized (this) {
+            call = hedge;
+        }
+        if (call != null) {
+            call.cancel();
+        }
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        cancelHedge();
+
+        return super.cancel(mayInterruptIfRunning);
+    }
+}
@@ -0,0 +1,174 @@
+package com.astronlab.tut.utils.http;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Hedging settings of an invoker, see {@code InvokerConfig.setHedging}. i.e. new HedgingPolicy().setPercentile(0.95)
+ *
+ * If a GET/HEAD call hasn't got its response within the given percentile of the host's recent latencies, the same
+ * request is sent once more; whichever response arrives first is used and the other call is cancelled.
+ * A host isn't hedged until {@code minSamples} latencies of it are known. A hedge request counts against the
+ * invoker's rate and concurrency limits like any other call; it's skipped (never waited for) if they don't allow it.
+ * The host's delay is recomputed once every {@code DELAY_UPDATE_INTERVAL} latencies, a call only reads it.
+ */
+public class HedgingPolicy {
+    private static final int DELAY_UPDATE_INTERVAL = 16;
+
+    private double percentile = 0.95;
+    private long minDelayNanos = TimeUnit.MILLISECONDS.toNanos(10);
+    private int windowSize = 128, minSamples = 20;
+
+    private final ConcurrentMap<String, LatencyWindow> windows = new ConcurrentHashMap<>();
+    private final AtomicLong hedgeCount = new AtomicLong(), hedgeWinCount = new AtomicLong();
+    private final AtomicLong hedgeSkipCount = new AtomicLong();
+
+    /**
+     * @param percentile between 0 and 1, i.e. 0.95 hedges roughly the slowest 5% of the calls
+     * @return
+     */
+    public HedgingPolicy setPercentile(double percentile) {
+        if (percentile <= 0 || percentile > 1) {
+            throw new IllegalArgumentException("percentile must be in (0, 1]");
+        }
+        this.percentile = percentile;
+
+        return this;
+    }
+
+    /**
+     * Lower bound of the hedging delay, so that very fast hosts aren't hit twice for every small hiccup
+     *
+     * @param millis
+     * @return
+     */
+    public HedgingPolicy setMinDelay(long millis) {
+        this.minDelayNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+
+        return this;
+    }
+
+    /**
+     * @param windowSize number of the recent latencies kept per host (applies to the hosts seen afterwards)
+     * @param minSamples
+     * @return
+     */
+    public HedgingPolicy setWindow(int windowSize, int minSamples) {
+        this.windowSize = windowSize;
+        this.minSamples = Math.min(minSamples, windowSize);
+
+        return this;
+    }
+
+    /**
+     * @return delay of the hedge request in nanoseconds, -1 if the host shouldn't be hedged yet
+     */
+    long hedgeDelayNanos(String host) {
+        LatencyWindow window = windows.get(host);
+        long percentileNanos = window == null ? -1 : window.percentileNanos;
+
+        return percentileNanos < 0 ? -1 : Math.max(minDelayNanos, percentileNanos);
+    }
+
+    void recordLatency(String host, long nanos) {
+        LatencyWindow window = windows.get(host);
+        if (window == null) {
+            LatencyWindow newWindow = new LatencyWindow(windowSize);
+            window = windows.putIfAbsent(host, newWindow);
+            if (window == null) {
+                window = newWindow;
+            }
+        }
+        long count = window.record(nanos);
+        if (count >= minSamples && (count - minSamples) % DELAY_UPDATE_INTERVAL == 0) {
+            window.updatePercentile(percentile);
+        }
+    }
+
+    void onHedgeSent() {
+        hedgeCount.incrementAndGet();
+    }
+
+    void onHedgeWon() {
+        hedgeWinCount.incrementAndGet();
+    }
+
+    void onHedgeSkipped() {
+        hedgeSkipCount.incrementAndGet();
+    }
+
+    /**
+     * @return number of the hedge requests sent so far
+     */
+    public long getHedgeCount() {
+        return hedgeCount.get();
+    }
+
+    /**
+     * @return number of the hedge requests which were answered before the original one
+     */
+    public long getHedgeWinCount() {
+        return hedgeWinCount.get();
+    }
+
+    /**
+     * @return number of the hedge requests which weren't sent since the invoker's rate/concurrency limit was reached
+     */
+    public long getHedgeSkipCount() {
+        return hedgeSkipCount.get();
+    }
+
+    /**
+     * @return current hedging delay of the host in milliseconds, -1 if it isn't hedged yet
+     */
+    public long getHedgeDelayMillis(String host) {
+        long delay = hedgeDelayNanos(host);
+
+        return delay < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(delay);
+    }
+
+    /**
+     * Fixed size ring of the most recent latencies, written without locking. A slot is reserved, written and only
+     * then counted, so a reader never sees more samples than were written.
+     */
+    private static class LatencyWindow {
+        private final AtomicLongArray samples;
+        private final AtomicLong reserved = new AtomicLong(), count = new AtomicLong();
+        volatile long percentileNanos = -1; //-1 until enough samples are known
+
+        LatencyWindow(int size) {
+            samples = new AtomicLongArray(size);
+        }
+
+        /**
+         * @return number of the samples recorded so far, this one included
+         */
+        long record(long nanos) {
+            samples.set((int) (reserved.getAndIncrement() % samples.length()), Math.max(1, nanos));
+
+            return count.incrementAndGet();
+        }
+
+        void updatePercentile(double percentile) {
+            int n = (int) Math.min(count.get(), samples.length());
+            long[] sorted = new long[n];
+            int written = 0;
+            for (int i = 0; i < n; i++) {
+                long sample = samples.get(i);
+                if (sample > 0) { //0 is a slot reserved by a concurrent writer which hasn't written it yet
+                    sorted[written++] = sample;
+                }
+            }
+            if (written == 0) {
+                return;
+            }
+            Arrays.sort(sorted, 0, written);
+
+            percentileNanos = sorted[Math.max(0, (int) Math.ceil(percentile * written) - 1)];
+        }
+    }
+}
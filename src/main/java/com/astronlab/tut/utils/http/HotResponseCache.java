@@ -0,0 +1,257 @@
+package com.astronlab.tut.utils.http;
+
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSource;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * Bounded in-memory cache for small, frequently requested GET bodies (config endpoints, status checks etc).
+ *
+ * - Every entry lives for the cache's TTL; a hit is a map lookup plus a clock read.
+ * - Memory is bounded by the total body size: the oldest entries are evicted first once {@code maxBytes} is
+ *   exceeded. A body larger than {@code maxEntryBytes} is never buffered: at most maxEntryBytes + 1 bytes are
+ *   read and the call fails, such urls should be fetched with the invoker directly.
+ * - Expired, replaced and invalidated entries are only dropped from the map (O(1)); their stale slots in the
+ *   eviction queue are skipped when polled and purged in bulk once they outnumber the live entries.
+ * - Loading is single-flight: concurrent callers missing the same url share one request to the origin.
+ *
+ * Only successful (2xx) responses are cached.
+ */
+public class HotResponseCache {
+    private final long maxBytes;
+    private final int maxEntryBytes;
+    private final long ttlNanos;
+
+    private final ConcurrentMap<String, CachedResponse> entries = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<CachedResponse> insertionOrder = new ConcurrentLinkedQueue<>();
+    private final ConcurrentMap<String, CompletableFuture<CachedResponse>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong totalBytes = new AtomicLong();
+    private final AtomicLong hitCount = new AtomicLong(), loadCount = new AtomicLong();
+    private final AtomicInteger staleSlots = new AtomicInteger(); //insertionOrder items no longer in the map
+    private final AtomicBoolean purging = new AtomicBoolean();
+
+    /**
+     * @param maxBytes      upper bound of the cached bodies' total size
+     * @param maxEntryBytes bigger bodies fail the call with an IOException instead of being buffered
+     * @param ttl
+     * @param unit
+     */
+    public HotResponseCache(long maxBytes, int maxEntryBytes, long ttl, TimeUnit unit) {
+        this.maxBytes = maxBytes;
+        this.maxEntryBytes = maxEntryBytes;
+        this.ttlNanos = unit.toNanos(ttl);
+    }
+
+    public CachedResponse get(HttpInvoker invoker, String url) throws IOException {
+        CachedResponse cached = getFresh(url);
+        if (cached != null) {
+            return cached;
+        }
+
+        CompletableFuture<CachedResponse> loader = new CompletableFuture<>();
+        CompletableFuture<CachedResponse> existingLoader = inFlight.putIfAbsent(url, loader);
+        if (existingLoader != null) {
+            return await(existingLoader);
+        }
+
+        //this thread is the loader of the url
+        try {
+            HttpRequestContext context = invoker.newRequest(url);
+            try {
+                loader.complete(store(url, context.getHttpResponse()));
+            } finally {
+                context.closeNReleaseResource();
+            }
+        } catch (IOException | RuntimeException e) {
+            loader.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(url, loader);
+        }
+
+        return loader.join();
+    }
+
+    public CompletableFuture<CachedResponse> getAsync(HttpInvoker invoker, final String url) {
+        CachedResponse cached = getFresh(url);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(cached);
+        }
+
+        final CompletableFuture<CachedResponse> loader = new CompletableFuture<>();
+        CompletableFuture<CachedResponse> existingLoader = inFlight.putIfAbsent(url, loader);
+        if (existingLoader != null) {
+            return existingLoader;
+        }
+
+        invoker.newRequest(url).getDecodedDataAsync(new IResponseDecoder<CachedResponse>() {
+            @Override
+            public CachedResponse decode(Response response) throws Exception {
+                return store(url, response);
+            }
+        }).whenComplete(new BiConsumer<CachedResponse, Throwable>() {
+            @Override
+            public void accept(CachedResponse response, Throwable error) {
+                inFlight.remove(url, loader);
+                if (error != null) {
+                    loader.completeExceptionally(error);
+                } else {
+                    loader.complete(response);
+                }
+            }
+        });
+
+        return loader;
+    }
+
+    private CachedResponse getFresh(String url) {
+        CachedResponse cached = entries.get(url);
+        if (cached == null) {
+            return null;
+        }
+
+        if (System.nanoTime() - cached.expiresAt >= 0) {
+            remove(cached);
+            return null;
+        }
+        hitCount.incrementAndGet();
+
+        return cached;
+    }
+
+    private CachedResponse store(String url, Response response) throws IOException {
+        loadCount.incrementAndGet();
+        CachedResponse cached = new CachedResponse(url, response.code(), response.headers(),
+                response.body().contentType(), readBody(url, response.body()), System.nanoTime() + ttlNanos);
+
+        if (!response.isSuccessful()) {
+            return cached;
+        }
+
+        CachedResponse previous = entries.put(url, cached);
+        if (previous != null) {
+            totalBytes.addAndGet(-previous.size());
+            onStaleSlot();
+        }
+        insertionOrder.add(cached);
+        totalBytes.addAndGet(cached.size());
+        evict();
+
+        return cached;
+    }
+
+    /**
+     * Reads the body only if it fits in an entry, a length over the limit is rejected before reading anything
+     */
+    private byte[] readBody(String url, ResponseBody body) throws IOException {
+        long contentLength = body.contentLength();
+        if (contentLength > maxEntryBytes) {
+            throw new IOException("Body of " + url + " (" + contentLength + " bytes) exceeds the hot cache's "
+                    + maxEntryBytes + " bytes entry limit");
+        }
+
+        BufferedSource source = body.source();
+        if (source.request(maxEntryBytes + 1L)) {
+            throw new IOException("Body of " + url + " exceeds the hot cache's " + maxEntryBytes
+                    + " bytes entry limit");
+        }
+
+        return source.readByteArray();
+    }
+
+    private void evict() {
+        CachedResponse oldest;
+        while (totalBytes.get() > maxBytes && (oldest = insertionOrder.poll()) != null) {
+            if (entries.remove(oldest.getUrl(), oldest)) {
+                totalBytes.addAndGet(-oldest.size());
+            } else {
+                staleSlots.decrementAndGet();
+            }
+        }
+    }
+
+    private void remove(CachedResponse cached) {
+        if (entries.remove(cached.getUrl(), cached)) {
+            totalBytes.addAndGet(-cached.size());
+            onStaleSlot();
+        }
+    }
+
+    /**
+     * An entry left the map but not the eviction queue; the queue is purged (by one thread) once such slots
+     * outnumber the live entries, which keeps it bounded at O(1) amortized cost per removal
+     */
+    private void onStaleSlot() {
+        if (staleSlots.incrementAndGet() <= entries.size() + 64 || !purging.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            Iterator<CachedResponse> iterator = insertionOrder.iterator();
+            while (iterator.hasNext()) {
+                CachedResponse cached = iterator.next();
+                if (entries.get(cached.getUrl()) != cached) {
+                    iterator.remove();
+                    staleSlots.decrementAndGet();
+                }
+            }
+        } finally {
+            purging.set(false);
+        }
+    }
+
+    private static CachedResponse await(CompletableFuture<CachedResponse> loader) throws IOException {
+        try {
+            return loader.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the response", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause() instanceof CompletionException ? e.getCause().getCause() : e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        }
+    }
+
+    public void invalidate(String url) {
+        CachedResponse cached = entries.get(url);
+        if (cached != null) {
+            remove(cached);
+        }
+    }
+
+    public void clear() {
+        entries.clear();
+        insertionOrder.clear();
+        staleSlots.set(0);
+        totalBytes.set(0);
+    }
+
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return number of requests actually sent to the origin
+     */
+    public long getLoadCount() {
+        return loadCount.get();
+    }
+
+    public long getSize() {
+        return totalBytes.get();
+    }
+}
@@ -0,0 +1,119 @@
+package com.astronlab.tut.utils.http;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+
+/**
+ * Combinators for the futures returned by the async methods of {@code HttpInvoker}/{@code HttpRequestContext}.
+ * i.e. HttpFutures.allOf(futures).thenAccept(bodies -> ...);
+ */
+public final class HttpFutures {
+
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(
+            daemonThreadFactory("http-futures-timer"));
+
+    private HttpFutures() {}
+
+    static ThreadFactory daemonThreadFactory(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, name);
+                t.setDaemon(true);
+                return t;
+            }
+        };
+    }
+
+    static ScheduledExecutorService timer() {
+        return TIMER;
+    }
+
+    /**
+     * @return a future of all the results(in the same order as the input) which fails as soon as any of the input fails
+     */
+    public static <T> CompletableFuture<List<T>> allOf(final Collection<? extends CompletableFuture<? extends T>> futures) {
+        final CompletableFuture<List<T>> result = new CompletableFuture<>();
+        CompletableFuture<Void> all = CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()]));
+
+        for (CompletableFuture<? extends T> future : futures) {
+            future.whenComplete(new BiConsumer<T, Throwable>() {
+                @Override
+                public void accept(T value, Throwable error) {
+                    if (error != null) {
+                        result.completeExceptionally(error);
+                    }
+                }
+            });
+        }
+
+        all.thenRun(new Runnable() {
+            @Override
+            public void run() {
+                List<T> values = new ArrayList<>(futures.size());
+                for (CompletableFuture<? extends T> future : futures) {
+                    values.add(future.join());
+                }
+                result.complete(values);
+            }
+        });
+
+        return result;
+    }
+
+    /**
+     * @return a future of the first successful result; it fails only if all of the input fails
+     */
+    public static <T> CompletableFuture<T> firstOf(final Collection<? extends CompletableFuture<? extends T>> futures) {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        final int[] failures = {0};
+
+        if (futures.isEmpty()) {
+            result.completeExceptionally(new IllegalArgumentException("No future to wait for"));
+        }
+
+        for (CompletableFuture<? extends T> future : futures) {
+            future.whenComplete(new BiConsumer<T, Throwable>() {
+                @Override
+                public void accept(T value, Throwable error) {
+                    if (error == null) {
+                        result.complete(value);
+                        return;
+                    }
+                    synchronized (failures) {
+                        if (++failures[0] == futures.size()) {
+                            result.completeExceptionally(error);
+                        }
+                    }
+                }
+            });
+        }
+
+        return result;
+    }
+
+    /**
+     * Fails the future with a {@code TimeoutException} (and cancels the underlying call) if it doesn't finish in time.
+     */
+    public static <T> CompletableFuture<T> withTimeout(final CompletableFuture<T> future, long timeout, TimeUnit unit) {
+        TIMER.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (!future.isDone()) {
+                    future.completeExceptionally(new TimeoutException("Timed out after " + timeout + " " + unit));
+                    future.cancel(true);
+                }
+            }
+        }, timeout, unit);
+
+        return future;
+    }
+}
@@ -2,37 +2,60 @@ package com.astronlab.tut.utils.http;
 
 import okhttp3.*;
 
-import javax.net.ssl.*;
+import javax.net.ssl.HostnameVerifier;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.InetSocketAddress;
 import java.net.Proxy;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
-import java.security.cert.CertificateException;
-import java.security.cert.X509Certificate;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
 
 /**
  * OkHttp v3 is stateless (doesn't store session cookies) but this Library is built to be stateful.
  * As for usage, please call "closeNReleaseResource" method after your task is done.
+ *
+ * An invoker can be shared across threads: its client is immutable and every invoker is derived from one
+ * shared client, so they all reuse the same connection pool and dispatcher. For concurrent usage create a
+ * separate {@code HttpRequestContext} per call via {@code newRequest}. The url based methods of this class
+ * (getHttpResponse, getStringData etc.) work on a single default context and are meant for one thread only.
  */
 public class HttpInvoker {
-    private OkHttpClient httpClient;
-    private Response currentHttpResponse;
-    private Call currentRequestCall;
+    //Parent of every invoker's client; OkHttpClient.newBuilder() keeps its connection pool and dispatcher
+    private static final OkHttpClient SHARED_CLIENT = new OkHttpClient.Builder()
+            .socketFactory(new CountingSocketFactory())
+            .addNetworkInterceptor(new CompressedBodyInterceptor()).build();
+    //OkHttp's cache owns its directory, so one instance per directory is shared by all the invokers
+    private static final ConcurrentMap<File, Cache> DISK_CACHES = new ConcurrentHashMap<>();
+
+    private volatile OkHttpClient httpClient;
+    private volatile HotResponseCache hotCache;
+    private volatile HedgingPolicy hedging;
+    private volatile RateLimiter rateLimiter;
+    private volatile AdaptiveConcurrencyLimiter concurrencyLimiter;
+    private volatile RequestEventSink eventSink;
+    private CompositeEventListener.Factory eventListeners = CompositeEventListener.Factory.EMPTY;
+    private Dispatcher ownDispatcher; //of setMaxRequests/setMaxConcurrentStreams, null while the shared one is used
+    private HttpRequestContext defaultContext;
     private InvokerConfig config;
 
     public HttpInvoker() {
-        httpClient = new OkHttpClient.Builder().cookieJar(
-                getCustomCookieJar()).build();
+        httpClient = SHARED_CLIENT.newBuilder().cookieJar(new ConcurrentCookieJar())
+                .addNetworkInterceptor(new RateLimitInterceptor(this)).build();
     }
 
     public HttpInvoker(String url) throws Exception {
@@ -40,10 +63,228 @@ public class HttpInvoker {
         config().setUrl(url);
     }
 
-    public String getUrl() throws Exception {
-        String httpUrl = getCurrentRequestCall().request().url().toString();
+    /**
+     * Creates a new request context on top of this invoker's settings (proxy, timeout, cookies etc).
+     * Each context is independent, so this method could be called from multiple threads at once.
+     *
+     * @param httpUrl
+     * @return
+     */
+    public HttpRequestContext newRequest(String httpUrl) {
+        return new HttpRequestContext(this, httpUrl);
+    }
+
+    /**
+     * Non-blocking fetch; many of these could be in flight at once while the calling thread moves on.
+     * The concurrency is bounded by the dispatcher, see {@code InvokerConfig.setMaxRequests}
+     *
+     * @param httpUrl
+     * @return a future of the response which must be closed after usage
+     */
+    public CompletableFuture<Response> getHttpResponseAsync(String httpUrl) {
+        return newRequest(httpUrl).getHttpResponseAsync();
+    }
+
+    public CompletableFuture<String> getStringDataAsync(String httpUrl) {
+        return newRequest(httpUrl).getStringDataAsync();
+    }
+
+    /**
+     * Fetches all the urls concurrently: at most {@code maxConcurrency} requests are in flight for the whole batch
+     * and at most {@code maxConcurrencyPerHost} of them to a single host, the rest wait in the batch's queue
+     * without holding any thread. Results are streamed back via the returned batch as soon as they complete.
+     *
+     * @param urls
+     * @param options
+     * @return
+     */
+    public FetchBatch fetchAll(Collection<String> urls, final FetchOptions options) {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(options.getMaxConcurrency());
+        dispatcher.setMaxRequestsPerHost(options.getMaxConcurrencyPerHost());
+        //same connection pool/cookies/settings, only the scheduling is batch specific
+        OkHttpClient batchClient = httpClient.newBuilder().dispatcher(dispatcher).build();
+        final FetchBatch batch = new FetchBatch(dispatcher, urls.size());
+
+        if (batchClient.dns() instanceof CachingDns) {
+            //resolve every host in parallel up front instead of one by one as the requests get their turn
+            Set<String> hosts = new HashSet<>();
+            for (String url : urls) {
+                HttpUrl httpUrl = HttpUrl.parse(url);
+                if (httpUrl != null) {
+                    hosts.add(httpUrl.host());
+                }
+            }
+            ((CachingDns) batchClient.dns()).prefetch(hosts);
+        }
+
+        for (final String url : urls) {
+            HttpRequestContext context;
+            try {
+                context = new HttpRequestContext(this, batchClient, url);
+            } catch (IllegalArgumentException e) {
+                batch.complete(new FetchResult(url, -1, null, e));
+                continue;
+            }
+
+            CompletableFuture<FetchResult> future = context.getDecodedDataAsync(new IResponseDecoder<FetchResult>() {
+                @Override
+                public FetchResult decode(Response response) throws Exception {
+                    String body = options.isReadBody() ? response.body().string() : null;
+                    return new FetchResult(url, response.code(), body, null);
+                }
+            });
+            batch.add(future);
+            future.whenComplete(new BiConsumer<FetchResult, Throwable>() {
+                @Override
+                public void accept(FetchResult result, Throwable error) {
+                    batch.complete(error == null ? result : new FetchResult(url, -1, null, error));
+                }
+            });
+        }
+
+        return batch;
+    }
+
+    /**
+     * Opens connections ahead of the traffic: {@code connectionsPerHost} concurrent HEAD requests are sent to each
+     * origin (i.e. "https://api.example.com") and their connections (TLS included) are left idle in the pool.
+     * The pool must allow that many idle connections, see {@code InvokerConfig.setConnectionPool}; an HTTP/2
+     * origin ends up with a single connection anyway.
+     *
+     * @param origins
+     * @param connectionsPerHost
+     * @return a future of the number of connections warmed successfully
+     */
+    public CompletableFuture<Integer> prewarm(Collection<String> origins, int connectionsPerHost) {
+        final Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(Math.max(1, origins.size() * connectionsPerHost));
+        dispatcher.setMaxRequestsPerHost(Math.max(1, connectionsPerHost));
+        OkHttpClient warmupClient = httpClient.newBuilder().dispatcher(dispatcher).build();
+
+        List<CompletableFuture<Integer>> warmups = new ArrayList<>();
+        for (String origin : origins) {
+            for (int i = 0; i < connectionsPerHost; i++) {
+                HttpRequestContext context;
+                try {
+                    context = new HttpRequestContext(this, warmupClient, origin);
+                } catch (IllegalArgumentException e) {
+                    warmups.add(CompletableFuture.completedFuture(0)); //invalid origin, nothing to warm
+                    continue;
+                }
+                context.getExtraRequestConfigs().head();
+                warmups.add(context.getDecodedDataAsync(new IResponseDecoder<Integer>() {
+                    @Override
+                    public Integer decode(Response response) {
+                        return 1;
+                    }
+                }).exceptionally(new Function<Throwable, Integer>() {
+                    @Override
+                    public Integer apply(Throwable error) {
+                        return 0;
+                    }
+                }));
+            }
+        }
+
+        return HttpFutures.allOf(warmups).thenApply(new Function<List<Integer>, Integer>() {
+            @Override
+            public Integer apply(List<Integer> results) {
+                //let the warm-up dispatcher threads die instead of keeping the JVM alive for their keep-alive time
+                dispatcher.executorService().shutdown();
+                int warmed = 0;
+                for (Integer result : results) {
+                    warmed += result;
+                }
+                return warmed;
+            }
+        });
+    }
+
+    /**
+     * @return current state of this invoker's connection pool (shared with the other invokers unless
+     * {@code InvokerConfig.setConnectionPool} was used)
+     */
+    public ConnectionPoolStats getConnectionPoolStats() {
+        OkHttpClient client = httpClient;
+        ConnectionPool pool = client.connectionPool();
+        int idle = pool.idleConnectionCount();
+        CountingSocketFactory sockets = client.socketFactory() instanceof CountingSocketFactory
+                ? (CountingSocketFactory) client.socketFactory() : null;
+
+        return new ConnectionPoolStats(idle, Math.max(0, pool.connectionCount() - idle),
+                sockets == null ? -1 : sockets.getOpened(), sockets == null ? -1 : sockets.getClosed());
+    }
+
+    /**
+     * Serves the url's response from the in-memory hot cache (see {@code InvokerConfig.setHotCache}), concurrent
+     * misses of the same url share a single request. A body over the cache's entry limit fails with an IOException.
+     *
+     * @param httpUrl
+     * @return
+     * @throws Exception
+     */
+    public CachedResponse getCachedResponse(String httpUrl) throws Exception {
+        return getHotCache().get(this, httpUrl);
+    }
+
+    public CompletableFuture<CachedResponse> getCachedResponseAsync(String httpUrl) throws Exception {
+        return getHotCache().getAsync(this, httpUrl);
+    }
+
+    HedgingPolicy getHedgingPolicy() {
+        return hedging;
+    }
+
+    RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    AdaptiveConcurrencyLimiter getConcurrencyLimiter() {
+        return concurrencyLimiter;
+    }
+
+    RequestEventSink getEventSink() {
+        return eventSink;
+    }
+
+    private HotResponseCache getHotCache() throws Exception {
+        HotResponseCache cache = hotCache;
+        if (cache == null) {
+            throw new Exception("Please set a hot cache via config().setHotCache(..), first!");
+        }
+
+        return cache;
+    }
+
+    /**
+     * @return disk cache of this invoker (hit/network/request counts etc), null if not set
+     */
+    public Cache getDiskCache() {
+        return httpClient.cache();
+    }
+
+    private static Cache getOrCreateDiskCache(File directory, long maxBytes) throws IOException {
+        File key = directory.getCanonicalFile();
+        Cache cache = DISK_CACHES.get(key);
+
+        if (cache == null) {
+            Cache newCache = new Cache(key, maxBytes);
+            cache = DISK_CACHES.putIfAbsent(key, newCache);
+            if (cache == null) {
+                cache = newCache;
+            }
+        }
+
+        return cache;
+    }
+
+    OkHttpClient getHttpClient() {
+        return httpClient;
+    }
 
-        return httpUrl;
+    public String getUrl() throws Exception {
+        return getDefaultContext().getUrl();
     }
 
     /**
@@ -54,36 +295,28 @@ public class HttpInvoker {
      * @return
      */
     public Call getNewRequestCall(String httpUrl) {
-        return createRequestCall(new Request.Builder().url(httpUrl).build());
-    }
-
-    private Call createRequestCall(Request request) {
-        return httpClient.newCall(request);
+        return httpClient.newCall(new Request.Builder().url(httpUrl).build());
     }
 
-    private Call getCurrentRequestCall() throws Exception {
-        if (currentRequestCall == null) {
+    private HttpRequestContext getDefaultContext() throws Exception {
+        if (defaultContext == null) {
             throw new Exception("Please set an URL for your request, first!");
         }
 
-        return currentRequestCall;
+        return defaultContext;
     }
 
     public Response getHttpResponse() throws Exception {
-        System.out.println("Invoking: " + getUrl());
-
         //Check whether there exist an un-updated config
         if (config != null) {
             config.update();
         }
 
-        currentHttpResponse = getCurrentRequestCall().execute();
-
-        return currentHttpResponse;
+        return getDefaultContext().getHttpResponse();
     }
 
     public Response getCurrentHttpResponse() {
-        return currentHttpResponse;
+        return defaultContext == null ? null : defaultContext.getCurrentHttpResponse();
     }
 
     /**
@@ -116,105 +349,43 @@ public class HttpInvoker {
     }
 
     public HttpInvoker downloadDataToFile(String fileName) throws Exception {
-        File file = new File(fileName);
-        FileOutputStream fop = new FileOutputStream(file);
-        if (!file.exists()) {
-            file.createNewFile();
+        return downloadDataToFile(fileName, false);
+    }
+
+    /**
+     * @param fileName
+     * @param syncToDisk whether to fsync the file before it's renamed to the final name
+     * @return
+     * @throws Exception
+     */
+    public HttpInvoker downloadDataToFile(String fileName, boolean syncToDisk) throws Exception {
+        if (config != null) {
+            config.update();
         }
-        fop.write(getHttpResponse().body().bytes());
-        fop.flush();
-        fop.close();
+        getDefaultContext().downloadDataToFile(fileName, syncToDisk);
 
         return this;
     }
 
     public HttpInvoker abortConnection() throws Exception {
-        getCurrentRequestCall().cancel();
+        getDefaultContext().abortConnection();
 
         return this;
     }
 
-    private CookieJar getCustomCookieJar() {
-        CookieJar cookieJar = new CookieJar() {
-            //Store format: HashMap<Host, HashMap<Name_Path_Scheme, Cookie>>
-            HashMap<String, HashMap<String, Cookie>> storedCookies = new HashMap<>();
-
-            @Override
-            public void saveFromResponse(HttpUrl url,
-                                         List<Cookie> cookies) {
-                String hostKey = getHostKey(url);
-                HashMap<String, Cookie> hostCookies = storedCookies.get(hostKey);
-
-                if (hostCookies == null) {
-                    hostCookies = new HashMap<>();
-                    storedCookies.put(hostKey, hostCookies);
-                }
-
-                for (Cookie cookie : cookies) {
-                    hostCookies.put(getCookieKey(cookie), cookie);
-                }
-            }
-
-            @Override
-            public List<Cookie> loadForRequest(HttpUrl url) {
-                HashMap<String, Cookie> hostCookies = storedCookies.get(
-                        getHostKey(url));
-                List<Cookie> cookieList = new ArrayList<>();
-
-                if (hostCookies != null) {
-                    Collection<Cookie> cookieCollection = hostCookies.values();
-                    for (Cookie cookie : cookieCollection) {
-                        if (isPathMatch(url, cookie)) {
-                            cookieList.add(cookie);
-                        }
-                    }
-                }
-
-                return cookieList;
-            }
-
-            private String getHostKey(HttpUrl httpUrl) {
-                return httpUrl.host().replaceAll(
-                        ".*?([^\\s\\n:\\./]+\\.[^\\s\\n\\d:\\./]++|[\\d:\\.]++)$", "$1");
-            }
-
-            private String getCookieKey(Cookie cookie) {
-                return cookie.name() + "_" + cookie.path() + "_" + cookie.secure();
-            }
-
-            private boolean isPathMatch(HttpUrl url, Cookie cookie) {
-                String urlPath = url.encodedPath();
-                String cookiePath = cookie.path();
-
-                if (urlPath.equals(cookiePath)) {
-                    return true; // As in '/foo' matching '/foo'.
-                }
-
-                if (urlPath.startsWith(cookiePath)) {
-                    if (cookiePath.endsWith("/")) {
-                        return true; // As in '/' matching '/foo'.
-                    }
-                    if (urlPath.charAt(cookiePath.length()) == '/') {
-                        return true; // As in '/foo' matching '/foo/bar'.
-                    }
-                }
-
-                return false;
-            }
-        };
-
-        return cookieJar;
-    }
-
+    /**
+     * Releases the default context's resources. The client itself is kept as it might be shared with other threads.
+     *
+     * @return
+     * @throws IOException
+     */
     public HttpInvoker closeNReleaseResource() throws IOException {
-        if (currentHttpResponse != null) {
-            currentHttpResponse.body().close();
+        if (defaultContext != null) {
+            defaultContext.closeNReleaseResource();
         }
 
         //Remove all references for faster GC
-        httpClient = null;
-        currentHttpResponse = null;
-        currentRequestCall = null;
+        defaultContext = null;
         config = null;
 
         return this;
@@ -225,7 +396,6 @@ public class HttpInvoker {
         //TODO: remove update method
 
         private OkHttpClient.Builder clientConfigBuilder;
-        private Request.Builder requestConfigBuilder;
 
         private OkHttpClient.Builder getClientConfig() {
             if (clientConfigBuilder == null) {
@@ -236,27 +406,20 @@ public class HttpInvoker {
         }
 
         private Request.Builder getRequestConfig() throws Exception {
-            if (requestConfigBuilder == null) {
-                requestConfigBuilder = getCurrentRequestCall().request().newBuilder();
-            }
-
-            return requestConfigBuilder;
+            return getDefaultContext().getExtraRequestConfigs();
         }
 
         /**
-         * If url is changed then headers/methods type/tags will be reset.
+         * If url's host is changed then headers/methods type/tags will be reset.
          *
          * @param httpUrl
          * @return
          */
         public InvokerConfig setUrl(String httpUrl) {
-            if (currentRequestCall != null && currentRequestCall.request().url().host().equals(
-                    HttpUrl.parse(httpUrl).host())) {
-                //preserve the last request's headers if the url's host is same
-                requestConfigBuilder = currentRequestCall.request().newBuilder().url(httpUrl);
-                currentRequestCall = createRequestCall(requestConfigBuilder.build());
+            if (defaultContext == null) {
+                defaultContext = newRequest(httpUrl);
             } else {
-                currentRequestCall = getNewRequestCall(httpUrl);
+                defaultContext.setUrl(httpUrl);
             }
 
             return this;
@@ -264,34 +427,45 @@ public class HttpInvoker {
 
         public InvokerConfig acceptAllSSLCerts()
                 throws KeyManagementException, NoSuchAlgorithmException {
-            TrustAllCertsSSLSocket socket = new TrustAllCertsSSLSocket();
-            getClientConfig().sslSocketFactory(
-                    socket.getSocketFactory()).hostnameVerifier(
-                    socket.getHostNameVerifier());
+            return setSslContext(SharedSslContext.trustAll());
+        }
+
+        /**
+         * i.e. config.setSslContext(SharedSslContext.forTrustStore(file, password, "PKCS12"))
+         *
+         * @param sslContext
+         * @return
+         */
+        public InvokerConfig setSslContext(SharedSslContext sslContext) {
+            HostnameVerifier verifier = sslContext.getHostnameVerifier();
+            getClientConfig().sslSocketFactory(sslContext.getSocketFactory(), sslContext.getTrustManager())
+                    .hostnameVerifier(verifier != null ? verifier : SHARED_CLIENT.hostnameVerifier());
 
             return this;
         }
 
         public InvokerConfig post(RequestEntityBuilder postEntityBuilder)
                 throws Exception {
-            getRequestConfig().post(postEntityBuilder.build());
+            getDefaultContext().post(postEntityBuilder);
 
             return this;
         }
 
         public InvokerConfig addPresetRequestHeadersSet() throws Exception {
-            getRequestConfig().removeHeader("Accept").addHeader("Accept",
-                    "text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8");
-            getRequestConfig().removeHeader("Accept-Language").addHeader("Accept-Language", "en-US,en;q=0.8");
-            getRequestConfig().removeHeader("User-Agent").addHeader("User-Agent",
-                    "Mozilla/5.0 (X11; Linux i686) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/28.0.1500.70 Safari/537.36");
+            getDefaultContext().addPresetRequestHeadersSet();
 
             return this;
         }
 
         public InvokerConfig addRequestHeader(String key, String value)
                 throws Exception {
-            getRequestConfig().removeHeader(key).addHeader(key, value);
+            getDefaultContext().addRequestHeader(key, value);
+
+            return this;
+        }
+
+        public InvokerConfig setDownloadListener(IHttpProgressListener listener) throws Exception {
+            getDefaultContext().setDownloadListener(listener);
 
             return this;
         }
@@ -319,6 +493,304 @@ public class HttpInvoker {
             return this;
         }
 
+        /**
+         * Bounds the async calls of this invoker: up to {@code maxRequests} calls run at once (at most
+         * {@code maxRequestsPerHost} of those to a single host) and the rest wait in the dispatcher's queue
+         * without holding any thread. This invoker gets its own dispatcher so the shared one is left untouched.
+         *
+         * @param maxRequests
+         * @param maxRequestsPerHost
+         * @return
+         */
+        public InvokerConfig setMaxRequests(int maxRequests, int maxRequestsPerHost) {
+            Dispatcher dispatcher = getOwnDispatcher();
+            dispatcher.setMaxRequests(maxRequests);
+            dispatcher.setMaxRequestsPerHost(maxRequestsPerHost);
+
+            return this;
+        }
+
+        /**
+         * Created on first use and then only adjusted, so the dispatcher settings don't undo each other
+         */
+        private Dispatcher getOwnDispatcher() {
+            if (ownDispatcher == null) {
+                ownDispatcher = new Dispatcher();
+            }
+            getClientConfig().dispatcher(ownDispatcher);
+
+            return ownDispatcher;
+        }
+
+        /**
+         * Gives this invoker its own connection pool instead of the shared one (5 idle connections kept for
+         * 5 minutes). Size it to the number of connections the invoker keeps busy, or prewarms.
+         *
+         * @param maxIdleConnections
+         * @param keepAlive
+         * @param unit
+         * @return
+         */
+        public InvokerConfig setConnectionPool(int maxIdleConnections, long keepAlive, TimeUnit unit) {
+            getClientConfig().connectionPool(new ConnectionPool(maxIdleConnections, keepAlive, unit))
+                    .socketFactory(new CountingSocketFactory());
+
+            return this;
+        }
+
+        /**
+         * Persists responses under the directory: entries are stored by their url's hash with a compact journal
+         * as index, the least recently used ones are evicted beyond {@code maxBytes} and stale entries are
+         * revalidated via ETag/Last-Modified (If-None-Match/If-Modified-Since) instead of re-downloaded.
+         *
+         * @param directory
+         * @param maxBytes
+         * @return
+         * @throws IOException
+         */
+        public InvokerConfig setDiskCache(File directory, long maxBytes) throws IOException {
+            getClientConfig().cache(getOrCreateDiskCache(directory, maxBytes));
+
+            return this;
+        }
+
+        /**
+         * Same as {@code setDiskCache(directory, maxBytes)} but responses of GET requests that come without
+         * any caching header are also kept as fresh for {@code defaultMaxAgeSeconds}
+         *
+         * @param directory
+         * @param maxBytes
+         * @param defaultMaxAgeSeconds
+         * @return
+         * @throws IOException
+         */
+        public InvokerConfig setDiskCache(File directory, long maxBytes, int defaultMaxAgeSeconds)
+                throws IOException {
+            setDiskCache(directory, maxBytes);
+            removeInterceptors(getClientConfig().networkInterceptors(), CacheFallbackInterceptor.class);
+            getClientConfig().addNetworkInterceptor(new CacheFallbackInterceptor(defaultMaxAgeSeconds));
+
+            return this;
+        }
+
+        /**
+         * In-memory cache used by {@code getCachedResponse}, it could be shared by multiple invokers.
+         *
+         * @param cache
+         * @return
+         */
+        public InvokerConfig setHotCache(HotResponseCache cache) {
+            hotCache = cache;
+
+            return this;
+        }
+
+        /**
+         * Hedges the GET/HEAD calls of this invoker (blocking, async and batch ones), null disables it.
+         * The policy keeps the latency history, so share it between invokers talking to the same hosts.
+         *
+         * @param policy
+         * @return
+         */
+        public InvokerConfig setHedging(HedgingPolicy policy) {
+            hedging = policy;
+
+            return this;
+        }
+
+        /**
+         * Throttles the calls of this invoker (blocking, async and batch ones), null disables it. Retries and
+         * redirects of a call take a token each too. Share the limiter between invokers which should be limited
+         * together.
+         *
+         * @param limiter
+         * @return
+         */
+        public InvokerConfig setRateLimiter(RateLimiter limiter) {
+            rateLimiter = limiter;
+
+            return this;
+        }
+
+        /**
+         * Adapts the number of in-flight calls per host to the host's latency and errors, null disables it.
+         * Share the limiter between invokers calling the same hosts.
+         *
+         * @param limiter
+         * @return
+         */
+        public InvokerConfig setConcurrencyLimiter(AdaptiveConcurrencyLimiter limiter) {
+            concurrencyLimiter = limiter;
+
+            return this;
+        }
+
+        /**
+         * i.e. config.setDns(new CachingDns())
+         *
+         * @param dns
+         * @return
+         */
+        public InvokerConfig setDns(Dns dns) {
+            getClientConfig().dns(dns);
+
+            return this;
+        }
+
+        /**
+         * Records the phase timings (dns, connect, tls, ttfb etc) of every call of this invoker, see
+         * {@code RequestTimings}. Share the instance between invokers to aggregate them together.
+         *
+         * @param timings
+         * @return
+         */
+        public InvokerConfig setRequestTimings(RequestTimings timings) {
+            addEventListener(RequestTimings.class, timings.getListenerFactory());
+
+            return this;
+        }
+
+        /**
+         * Allows HTTP/2 (negotiated via ALPN on https, the default) or restricts the invoker to HTTP/1.1.
+         * A single HTTP/2 connection carries all the concurrent calls to a host, so the dispatcher's per host
+         * limit should be raised as well, see {@code setMaxConcurrentStreams}. A burst of calls to a host without
+         * a pooled connection races to connect (the extra connections are closed right away), so
+         * {@code prewarm(origins, 1)} the hosts before the burst.
+         *
+         * @param http2
+         * @return
+         */
+        public InvokerConfig preferHttp2(boolean http2) {
+            getClientConfig().protocols(http2 ? Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1)
+                    : Collections.singletonList(Protocol.HTTP_1_1));
+
+            return this;
+        }
+
+        /**
+         * Talks cleartext HTTP/2 (h2c) straight away, without an upgrade; for internal services known to support
+         * it. The invoker can't call https or HTTP/1-only urls afterwards.
+         *
+         * @return
+         */
+        public InvokerConfig useH2cPriorKnowledge() {
+            getClientConfig().protocols(Collections.singletonList(Protocol.H2_PRIOR_KNOWLEDGE));
+
+            return this;
+        }
+
+        /**
+         * Max concurrent calls per host of this invoker, which for HTTP/2 is the number of streams multiplexed on
+         * the host's connection (the server's own SETTINGS limit still applies). The dispatcher default is 5.
+         * Only the per host limit of the dispatcher (see {@code setMaxRequests}) changes, the total one is raised
+         * to maxStreams if it's lower.
+         *
+         * @param maxStreams
+         * @return
+         */
+        public InvokerConfig setMaxConcurrentStreams(int maxStreams) {
+            Dispatcher dispatcher = getOwnDispatcher();
+            dispatcher.setMaxRequests(Math.max(maxStreams, dispatcher.getMaxRequests()));
+            dispatcher.setMaxRequestsPerHost(maxStreams);
+
+            return this;
+        }
+
+        /**
+         * Tracks the calls per connection of this invoker, see {@code ConnectionStreamStats}
+         *
+         * @param stats
+         * @return
+         */
+        public InvokerConfig setStreamStats(ConnectionStreamStats stats) {
+            addEventListener(ConnectionStreamStats.class, stats.getListenerFactory());
+
+            return this;
+        }
+
+        private void addEventListener(Object key, EventListener.Factory factory) {
+            eventListeners = eventListeners.with(key, factory);
+            getClientConfig().eventListenerFactory(eventListeners);
+        }
+
+        /**
+         * Publishes the start/end event of every request of this invoker to the sink, null (the default) disables
+         * the events. i.e. config.setEventSink(new RequestEventSink(IRequestEventExporter.STDOUT, 8192))
+         *
+         * @param sink
+         * @return
+         */
+        public InvokerConfig setEventSink(RequestEventSink sink) {
+            eventSink = sink;
+
+            return this;
+        }
+
+        /**
+         * Retries failed calls of this invoker (blocking, async and batch ones) as per the policy. The backoff
+         * runs on the thread of the call: an async call keeps its dispatcher slot (of maxRequests and
+         * maxRequestsPerHost) while it waits, up to {@code RetryPolicy.setMaxTotalBackoff} per call.
+         *
+         * @param policy
+         * @return
+         */
+        public InvokerConfig setRetryPolicy(RetryPolicy policy) {
+            installInterceptor(new RetryInterceptor(policy, HttpInvoker.this));
+
+            return this;
+        }
+
+        /**
+         * Fails calls to the hosts whose circuit is open right away, without waiting for connect/read timeouts.
+         * It runs inside the retry policy, so every attempt is guarded and an open circuit stops the retries.
+         *
+         * @param breaker
+         * @return
+         */
+        public InvokerConfig setCircuitBreaker(CircuitBreaker breaker) {
+            installInterceptor(new CircuitBreakerInterceptor(breaker));
+
+            return this;
+        }
+
+        /**
+         * Decodes gzip/deflate response bodies while they're read, with inflaters reused from the decompressor's
+         * pool (instead of OkHttp's transparent gzip which allocates them per response). Body sizes are
+         * reported as decoded, i.e. contentLength() is -1 for a compressed response.
+         *
+         * @param decompressor
+         * @return
+         */
+        public InvokerConfig setResponseDecompressor(ResponseDecompressor decompressor) {
+            installInterceptor(new DecompressionInterceptor(decompressor));
+
+            return this;
+        }
+
+        /**
+         * Adds the interceptor in its stage's place, replacing an already installed one of the same type
+         */
+        private void installInterceptor(StagedInterceptor interceptor) {
+            List<Interceptor> interceptors = getClientConfig().interceptors();
+            removeInterceptors(interceptors, interceptor.getClass());
+
+            int index = 0;
+            while (index < interceptors.size() && !(interceptors.get(index) instanceof StagedInterceptor
+                    && ((StagedInterceptor) interceptors.get(index)).stage() > interceptor.stage())) {
+                index++;
+            }
+            interceptors.add(index, interceptor);
+        }
+
+        private void removeInterceptors(List<Interceptor> interceptors, Class<? extends Interceptor> type) {
+            Iterator<Interceptor> iterator = interceptors.iterator();
+            while (iterator.hasNext()) {
+                if (type.isInstance(iterator.next())) {
+                    iterator.remove();
+                }
+            }
+        }
+
         public InvokerConfig setConnectionTimeOut(int milliseconds) {
             getClientConfig().connectTimeout(milliseconds, TimeUnit.MILLISECONDS);
 
@@ -357,71 +829,17 @@ public class HttpInvoker {
         }
 
         public HttpInvoker update() throws Exception {
-            //Update client first
+            //Request settings are kept by the default context itself, so only the client needs to be swapped.
+            //Calls are created from the current client at execution time, hence no stale call reference is left behind.
             if (clientConfigBuilder != null) {
                 httpClient = clientConfigBuilder.build();
-                if (requestConfigBuilder == null) {
-                    //we need to update currentRequestCall reference too else httpclient's ref inside currentRequestCall(RealCall) will be un-synced
-                    currentRequestCall = createRequestCall(getCurrentRequestCall().request());
-                }
                 clientConfigBuilder = null;
             }
 
-            //Now update the request call
-            if (requestConfigBuilder != null) {
-                currentRequestCall = createRequestCall(requestConfigBuilder.build());
-                requestConfigBuilder = null;
-            }
-
             //now nullify parent config's instance
             config = null;
 
             return HttpInvoker.this;
         }
     }
-
-    private class TrustAllCertsSSLSocket {
-        private final SSLContext sslContext;
-
-        public TrustAllCertsSSLSocket()
-                throws NoSuchAlgorithmException, KeyManagementException {
-            sslContext = SSLContext.getInstance("TLS");
-            sslContext.init(null, new TrustManager[]{new TrustAllCertsManager()},
-                    new SecureRandom());
-        }
-
-        public SSLSocketFactory getSocketFactory() {
-            return sslContext.getSocketFactory();
-        }
-
-        public HostnameVerifier getHostNameVerifier() {
-            return new HostnameVerifier() {
-
-                @Override
-                public boolean verify(String s, SSLSession sslSession) {
-                    return true;
-                }
-            };
-        }
-
-        class TrustAllCertsManager implements X509TrustManager {
-
-            @Override
-            public void checkClientTrusted(
-                    X509Certificate[] x509Certificates, String s)
-                    throws CertificateException {
-            }
-
-            @Override
-            public void checkServerTrusted(
-                    X509Certificate[] x509Certificates, String s)
-                    throws CertificateException {
-            }
-
-            @Override
-            public X509Certificate[] getAcceptedIssuers() {
-                return new X509Certificate[0];
-            }
-        }
-    }
-}
\ No newline at end of file
+}
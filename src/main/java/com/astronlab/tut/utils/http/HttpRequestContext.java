@@ -0,0 +1,416 @@
+package com.astronlab.tut.utils.http;
+
+import okhttp3.*;
+import okio.Okio;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Request/response state of a single http call made through a (shared) {@code HttpInvoker}.
+ * A context is cheap and is not meant to be shared between threads: create one per call via
+ * {@code invoker.newRequest(url)} and call "closeNReleaseResource" method after your task is done.
+ */
+public class HttpRequestContext {
+    private final HttpInvoker invoker;
+    private final OkHttpClient client; //null to use the invoker's current client
+    private Request.Builder requestBuilder;
+    private HttpUrl url;
+    //written by the dispatcher thread when async methods are used
+    private volatile Call currentCall;
+    private volatile Response currentResponse;
+    private IHttpProgressListener downloadListener;
+    private ITransferProgressListener downloadProgressListener;
+
+    HttpRequestContext(HttpInvoker invoker, String httpUrl) {
+        this(invoker, null, httpUrl);
+    }
+
+    HttpRequestContext(HttpInvoker invoker, OkHttpClient client, String httpUrl) {
+        this.invoker = invoker;
+        this.client = client;
+        setUrl(httpUrl);
+    }
+
+    private OkHttpClient getHttpClient() {
+        return client != null ? client : invoker.getHttpClient();
+    }
+
+    public String getUrl() {
+        return url.toString();
+    }
+
+    /**
+     * If url's host is changed then headers/methods type/tags will be reset.
+     *
+     * @param httpUrl
+     * @return
+     */
+    public HttpRequestContext setUrl(String httpUrl) {
+        HttpUrl newUrl = HttpUrl.parse(httpUrl);
+        if (newUrl == null) {
+            throw new IllegalArgumentException("Invalid url: " + httpUrl);
+        }
+
+        if (url != null && url.host().equals(newUrl.host())) {
+            //preserve the last request's headers if the url's host is same
+            requestBuilder.url(newUrl);
+        } else {
+            requestBuilder = new Request.Builder().url(newUrl);
+        }
+        url = newUrl;
+
+        return this;
+    }
+
+    public HttpRequestContext post(RequestEntityBuilder postEntityBuilder) {
+        requestBuilder.post(postEntityBuilder.build());
+
+        return this;
+    }
+
+    public HttpRequestContext addPresetRequestHeadersSet() {
+        requestBuilder.removeHeader("Accept").addHeader("Accept",
+                "text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8");
+        requestBuilder.removeHeader("Accept-Language").addHeader("Accept-Language", "en-US,en;q=0.8");
+        requestBuilder.removeHeader("User-Agent").addHeader("User-Agent",
+                "Mozilla/5.0 (X11; Linux i686) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/28.0.1500.70 Safari/537.36");
+
+        return this;
+    }
+
+    public HttpRequestContext addRequestHeader(String key, String value) {
+        requestBuilder.removeHeader(key).addHeader(key, value);
+
+        return this;
+    }
+
+    /**
+     * @return an exit node of Request.Builder class, changes on it are applied to this context's next call
+     */
+    public Request.Builder getExtraRequestConfigs() {
+        return requestBuilder;
+    }
+
+    /**
+     * Download progress of the response body (getData, getStringData, downloadDataToFile and the async methods)
+     * will be reported to this listener, see {@code SourceProgressHandler}
+     *
+     * @param listener
+     * @return
+     */
+    public HttpRequestContext setDownloadListener(IHttpProgressListener listener) {
+        downloadListener = listener;
+
+        return this;
+    }
+
+    /**
+     * Allocation free alternative of {@code setDownloadListener}
+     *
+     * @param listener
+     * @return
+     */
+    public HttpRequestContext setDownloadProgressListener(ITransferProgressListener listener) {
+        downloadProgressListener = listener;
+
+        return this;
+    }
+
+    public Response getHttpResponse() throws IOException {
+        Request request = requestBuilder.build();
+        long startTime = publishStart(request);
+
+        RateLimiter rateLimiter = invoker.getRateLimiter();
+        if (rateLimiter != null) {
+            rateLimiter.acquire(url.host());
+        }
+        AdaptiveConcurrencyLimiter concurrencyLimiter = invoker.getConcurrencyLimiter();
+        AdaptiveConcurrencyLimiter.Permit permit = concurrencyLimiter == null ? null
+                : concurrencyLimiter.acquire(url.host());
+
+        HedgingPolicy hedging = getHedgingPolicy(request);
+        try {
+            if (hedging != null) {
+                //the hedged call hands over the response after the onResponse hook
+                currentResponse = await(newHedgedCall(request, hedging, (IResponseDecoder<Response>) null).enqueue());
+            } else {
+                currentCall = getHttpClient().newCall(request);
+                currentResponse = onResponse(currentCall.execute());
+            }
+        } catch (IOException | RuntimeException e) {
+            if (permit != null) {
+                if (currentCall != null && currentCall.isCanceled()) {
+                    permit.onIgnored();
+                } else {
+                    permit.onFailure();
+                }
+            }
+            publishEnd(request, startTime, -1, e);
+            throw e;
+        }
+
+        if (permit != null) {
+            permit.onResponse(currentResponse.code());
+        }
+        publishEnd(request, startTime, currentResponse.code(), null);
+
+        return currentResponse;
+    }
+
+    private <T> CallFuture<T> newCallFuture(Request request, IResponseDecoder<T> decoder) {
+        HedgingPolicy hedging = getHedgingPolicy(request);
+        if (hedging != null) {
+            return newHedgedCall(request, hedging, decoder);
+        }
+
+        currentCall = getHttpClient().newCall(request);
+
+        return new CallFuture<>(currentCall, decoder, this);
+    }
+
+    /**
+     * Enqueues the call once the rate and concurrency limiters (if any) permit it, the caller doesn't wait for
+     * the permits
+     */
+    private <T> CompletableFuture<T> enqueue(final CallFuture<T> future) {
+        RateLimiter rateLimiter = invoker.getRateLimiter();
+        final AdaptiveConcurrencyLimiter concurrencyLimiter = invoker.getConcurrencyLimiter();
+        if (rateLimiter == null && concurrencyLimiter == null) {
+            return future.enqueue();
+        }
+
+        final String host = url.host();
+        CompletableFuture<Void> ratePermit = rateLimiter == null ? CompletableFuture.<Void>completedFuture(null)
+                : rateLimiter.acquireAsync(host);
+        if (concurrencyLimiter == null) {
+            ratePermit.thenRun(new Runnable() {
+                @Override
+                public void run() {
+                    future.enqueue();
+                }
+            });
+            return future;
+        }
+
+        ratePermit.thenCompose(new Function<Void, CompletableFuture<AdaptiveConcurrencyLimiter.Permit>>() {
+            @Override
+            public CompletableFuture<AdaptiveConcurrencyLimiter.Permit> apply(Void ignored) {
+                return concurrencyLimiter.acquireAsync(host);
+            }
+        }).thenAccept(new Consumer<AdaptiveConcurrencyLimiter.Permit>() {
+            @Override
+            public void accept(final AdaptiveConcurrencyLimiter.Permit permit) {
+                future.whenComplete(new BiConsumer<T, Throwable>() {
+                    @Override
+                    public void accept(T value, Throwable error) {
+                        if (error == null) {
+                            if (value instanceof Response) {
+                                permit.onResponse(((Response) value).code());
+                            } else {
+                                permit.onSuccess();
+                            }
+                        } else if (future.isCancelled() || future.getCall().isCanceled()) {
+                            permit.onIgnored();
+                        } else {
+                            permit.onFailure();
+                        }
+                    }
+                });
+                future.enqueue();
+            }
+        });
+
+        return future;
+    }
+
+    private <T> HedgedCall<T> newHedgedCall(Request request, HedgingPolicy hedging, IResponseDecoder<T> decoder) {
+        HedgedCall<T> call = new HedgedCall<>(getHttpClient(), request, hedging, invoker.getRateLimiter(),
+                invoker.getConcurrencyLimiter(), decoder, this);
+        currentCall = call.getCall();
+
+        return call;
+    }
+
+    /**
+     * @return the invoker's hedging policy if the request can be hedged (only reads are), null otherwise
+     */
+    private HedgingPolicy getHedgingPolicy(Request request) {
+        HedgingPolicy hedging = invoker.getHedgingPolicy();
+        String method = request.method();
+
+        return hedging != null && ("GET".equals(method) || "HEAD".equals(method)) ? hedging : null;
+    }
+
+    private static Response await(CompletableFuture<Response> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the response");
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * @return start time of the request
+     */
+    private long publishStart(Request request) {
+        RequestEventSink sink = invoker.getEventSink();
+        if (sink != null) {
+            sink.publish(new RequestEvent(RequestEvent.Type.START, request.method(), request.url(), 0, -1, null));
+        }
+
+        return System.nanoTime();
+    }
+
+    private void publishEnd(Request request, long startTime, int code, Throwable error) {
+        RequestEventSink sink = invoker.getEventSink();
+        if (sink != null) {
+            sink.publish(new RequestEvent(RequestEvent.Type.END, request.method(), request.url(),
+                    System.nanoTime() - startTime, code, error));
+        }
+    }
+
+    private <T> void publishEvents(final Request request, CompletableFuture<T> future) {
+        if (invoker.getEventSink() == null) {
+            return;
+        }
+
+        final long startTime = publishStart(request);
+        future.whenComplete(new BiConsumer<T, Throwable>() {
+            @Override
+            public void accept(T value, Throwable error) {
+                publishEnd(request, startTime, value instanceof Response ? ((Response) value).code() : -1, error);
+            }
+        });
+    }
+
+    /**
+     * Hook for every response received by this context, before it's handed over to the caller/decoder.
+     */
+    Response onResponse(Response response) {
+        if (downloadListener == null && downloadProgressListener == null) {
+            return response;
+        }
+
+        ResponseBody body = response.body();
+        SourceProgressHandler progressHandler = new SourceProgressHandler(body.source(), body.contentLength())
+                .setListener(downloadListener).setProgressListener(downloadProgressListener);
+
+        return response.newBuilder().body(ResponseBody.create(body.contentType(), body.contentLength(),
+                Okio.buffer(progressHandler))).build();
+    }
+
+    /**
+     * Non-blocking version of {@code getHttpResponse}: the call is queued on the invoker's dispatcher and the
+     * calling thread returns immediately. Cancelling the returned future cancels the call.
+     * Call "closeNReleaseResource" method (or close the response body) once the response is consumed.
+     *
+     * @return
+     */
+    public CompletableFuture<Response> getHttpResponseAsync() {
+        Request request = requestBuilder.build();
+        CallFuture<Response> future = newCallFuture(request, null);
+        publishEvents(request, future);
+        //keep track of the response for closeNReleaseResource, the caller still gets the cancellable future itself
+        future.thenAccept(new Consumer<Response>() {
+            @Override
+            public void accept(Response response) {
+                currentResponse = response;
+            }
+        });
+
+        return enqueue(future);
+    }
+
+    /**
+     * Async call whose response is decoded (and then closed) on the dispatcher thread,
+     * i.e. context.getDecodedDataAsync(IResponseDecoder.BYTES)
+     *
+     * @param decoder
+     * @return
+     */
+    public <T> CompletableFuture<T> getDecodedDataAsync(IResponseDecoder<T> decoder) {
+        Request request = requestBuilder.build();
+        CallFuture<T> future = newCallFuture(request, decoder);
+        publishEvents(request, future);
+
+        return enqueue(future);
+    }
+
+    public CompletableFuture<String> getStringDataAsync() {
+        return getDecodedDataAsync(IResponseDecoder.STRING);
+    }
+
+    public Response getCurrentHttpResponse() {
+        return currentResponse;
+    }
+
+    public String getStringData() throws IOException {
+        return getHttpResponse().body().string();
+    }
+
+    /**
+     * Call "closeNReleaseResource" method at the end of this method's usage
+     *
+     * @return InputStream of network source
+     * @throws IOException
+     */
+    public InputStream getData() throws IOException {
+        return getHttpResponse().body().byteStream();
+    }
+
+    public HttpRequestContext downloadDataToFile(String fileName) throws IOException {
+        return downloadDataToFile(fileName, false);
+    }
+
+    /**
+     * Streams the response body into the file in bounded segments, so memory usage doesn't grow with the file
+     * size. The file only shows up under its name once the download has completed.
+     *
+     * @param fileName
+     * @param syncToDisk whether to fsync the file before it's renamed to the final name
+     * @return
+     * @throws IOException
+     */
+    public HttpRequestContext downloadDataToFile(String fileName, boolean syncToDisk) throws IOException {
+        ResponseBody body = getHttpResponse().body();
+        try {
+            FileDownloads.writeToFile(body.source(), new File(fileName), syncToDisk);
+        } finally {
+            body.close();
+        }
+
+        return this;
+    }
+
+    public HttpRequestContext abortConnection() {
+        if (currentCall != null) {
+            currentCall.cancel();
+        }
+
+        return this;
+    }
+
+    public HttpRequestContext closeNReleaseResource() {
+        if (currentResponse != null) {
+            currentResponse.body().close();
+        }
+
+        //Remove all references for faster GC
+        currentResponse = null;
+        currentCall = null;
+
+        return this;
+    }
+}
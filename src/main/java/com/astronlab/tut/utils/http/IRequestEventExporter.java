@@ -0,0 +1,22 @@
+package com.astronlab.tut.utils.http;
+
+/**
+ * Receives the request events of a {@code RequestEventSink}, always on the sink's single drain thread,
+ * so an exporter may do blocking I/O without slowing down the requests.
+ */
+public interface IRequestEventExporter {
+
+    /**
+     * The former "Invoking: [url]" console output
+     */
+    IRequestEventExporter STDOUT = new IRequestEventExporter() {
+        @Override
+        public void export(RequestEvent event) {
+            if (event.getType() == RequestEvent.Type.START) {
+                System.out.println("Invoking: " + event.getUrl());
+            }
+        }
+    };
+
+    void export(RequestEvent event);
+}
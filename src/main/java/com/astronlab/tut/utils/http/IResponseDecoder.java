@@ -0,0 +1,26 @@
+package com.astronlab.tut.utils.http;
+
+import okhttp3.Response;
+
+/**
+ * Converts a response into the value an async call completes with. It is invoked on the dispatcher
+ * thread and the response is closed right after it returns.
+ */
+public interface IResponseDecoder<T> {
+
+    IResponseDecoder<String> STRING = new IResponseDecoder<String>() {
+        @Override
+        public String decode(Response response) throws Exception {
+            return response.body().string();
+        }
+    };
+
+    IResponseDecoder<byte[]> BYTES = new IResponseDecoder<byte[]>() {
+        @Override
+        public byte[] decode(Response response) throws Exception {
+            return response.body().bytes();
+        }
+    };
+
+    T decode(Response response) throws Exception;
+}
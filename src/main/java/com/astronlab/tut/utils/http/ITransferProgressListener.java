@@ -0,0 +1,14 @@
+package com.astronlab.tut.utils.http;
+
+/**
+ * Primitive specialized progress listener of the upload/download handlers, nothing is boxed or allocated per call.
+ */
+public interface ITransferProgressListener {
+
+    /**
+     * @param bytes       total bytes transferred so far
+     * @param nanos       nanoseconds elapsed since the transfer started
+     * @param bytesPerSec smoothed (exponentially weighted) transfer speed
+     */
+    void onProgress(long bytes, long nanos, double bytesPerSec);
+}
@@ -0,0 +1,197 @@
+package com.astronlab.tut.utils.http;
+
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ForwardingSource;
+import okio.Okio;
+import okio.Source;
+import okio.Timeout;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Streams the decoded bytes of a gzip (RFC 1952) or deflate (zlib RFC 1950, or the raw deflate some servers
+ * send instead) body. The inflater is acquired from the {@code ResponseDecompressor} on the first read and
+ * given back as soon as the body ends or is closed.
+ */
+class InflatingSource implements Source {
+    private static final int FHCRC = 1 << 1, FEXTRA = 1 << 2, FNAME = 1 << 3, FCOMMENT = 1 << 4;
+
+    private final BufferedSource source;
+    private final boolean gzip;
+    private final ResponseDecompressor decompressor;
+    private final CRC32 crc;
+    private ResponseDecompressor.PooledInflater inflater;
+    private int inputLength;
+    private long uncompressedSize;
+    private boolean finished;
+
+    InflatingSource(Source source, boolean gzip, final ResponseDecompressor decompressor) {
+        this.source = Okio.buffer(new ForwardingSource(source) {
+            @Override
+            public long read(Buffer sink, long byteCount) throws IOException {
+                long read = super.read(sink, byteCount);
+                if (read > 0) {
+                    decompressor.onCompressed(read);
+                }
+
+                return read;
+            }
+        });
+        this.gzip = gzip;
+        this.decompressor = decompressor;
+        crc = gzip ? new CRC32() : null;
+    }
+
+    @Override
+    public long read(Buffer sink, long byteCount) throws IOException {
+        if (byteCount < 0) {
+            throw new IllegalArgumentException("byteCount < 0: " + byteCount);
+        }
+        if (finished) {
+            return -1;
+        }
+        if (inflater == null && !start()) {
+            finished = true;
+            return -1;
+        }
+        if (byteCount == 0) {
+            return 0;
+        }
+
+        Inflater zlib = inflater.inflater;
+        byte[] output = inflater.output;
+        while (true) {
+            int count;
+            try {
+                count = zlib.inflate(output, 0, (int) Math.min(byteCount, output.length));
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupt " + (gzip ? "gzip" : "deflate") + " body", e);
+            }
+
+            if (count > 0) {
+                if (crc != null) {
+                    crc.update(output, 0, count);
+                }
+                sink.write(output, 0, count);
+                uncompressedSize += count;
+                decompressor.onUncompressed(count);
+                return count;
+            }
+            if (zlib.needsDictionary()) {
+                throw new IOException("Deflate body with a preset dictionary isn't supported");
+            }
+            if (zlib.finished()) {
+                finish();
+                return -1;
+            }
+
+            inputLength = source.read(inflater.input);
+            if (inputLength == -1) {
+                throw new EOFException("Unexpected end of " + (gzip ? "gzip" : "deflate") + " body");
+            }
+            zlib.setInput(inflater.input, 0, inputLength);
+        }
+    }
+
+    /**
+     * Consumes the gzip header or sniffs the deflate flavor, then takes an inflater from the pool
+     *
+     * @return false if the body is empty
+     */
+    private boolean start() throws IOException {
+        if (!source.request(1)) {
+            return false;
+        }
+
+        boolean nowrap = true;
+        if (gzip) {
+            readGzipHeader();
+        } else if (source.request(2)) {
+            int cmf = source.getBuffer().getByte(0) & 0xff, flg = source.getBuffer().getByte(1) & 0xff;
+            nowrap = (cmf & 0x0f) != 8 || ((cmf << 8) | flg) % 31 != 0;
+        }
+        inflater = decompressor.acquire(nowrap);
+
+        return true;
+    }
+
+    private void readGzipHeader() throws IOException {
+        source.require(10);
+        Buffer buffer = source.getBuffer();
+        if (buffer.getByte(0) != (byte) 0x1f || buffer.getByte(1) != (byte) 0x8b) {
+            throw new IOException("Content-Encoding is gzip but the body isn't in gzip format");
+        }
+        if (buffer.getByte(2) != 8) {
+            throw new IOException("Unsupported gzip compression method " + buffer.getByte(2));
+        }
+        int flags = buffer.getByte(3);
+        source.skip(10);
+
+        if ((flags & FEXTRA) != 0) {
+            source.require(2);
+            source.skip(source.readShortLe() & 0xffff);
+        }
+        if ((flags & FNAME) != 0) {
+            skipZeroTerminated();
+        }
+        if ((flags & FCOMMENT) != 0) {
+            skipZeroTerminated();
+        }
+        if ((flags & FHCRC) != 0) {
+            source.skip(2);
+        }
+    }
+
+    private void skipZeroTerminated() throws IOException {
+        long index = source.indexOf((byte) 0);
+        if (index == -1) {
+            throw new EOFException("Unexpected end of gzip header");
+        }
+        source.skip(index + 1);
+    }
+
+    private void finish() throws IOException {
+        if (gzip) {
+            //the inflater may have been handed the start of the trailer along with the last deflate bytes
+            int remaining = inflater.inflater.getRemaining();
+            Buffer trailer = new Buffer().write(inflater.input, inputLength - remaining, remaining);
+            if (trailer.size() < 8) {
+                source.readFully(trailer, 8 - trailer.size());
+            }
+
+            if (trailer.readIntLe() != (int) crc.getValue()) {
+                throw new IOException("gzip body CRC mismatch");
+            }
+            if (trailer.readIntLe() != (int) uncompressedSize) {
+                throw new IOException("gzip body size mismatch");
+            }
+        }
+
+        finished = true;
+        releaseInflater();
+    }
+
+    private void releaseInflater() {
+        if (inflater != null) {
+            decompressor.release(inflater);
+            inflater = null;
+        }
+    }
+
+    @Override
+    public Timeout timeout() {
+        return source.timeout();
+    }
+
+    @Override
+    public void close() throws IOException {
+        finished = true;
+        releaseInflater();
+        source.close();
+    }
+}
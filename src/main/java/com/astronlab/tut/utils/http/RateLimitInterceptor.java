@@ -0,0 +1,36 @@
+package com.astronlab.tut.utils.http;
+
+import okhttp3.Call;
+import okhttp3.Interceptor;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Network interceptor of an invoker which charges its {@code RateLimiter} for the requests a call sends after
+ * its first one: retries (of the retry policy or OkHttp's own) and redirects. The first request was paid for
+ * before the call started. The token is taken without waiting, as the connection is held already here; its debt
+ * delays the next calls instead. {@code RetryInterceptor} waits for the token before a retry is sent.
+ */
+class RateLimitInterceptor implements Interceptor {
+    private final HttpInvoker invoker;
+    //calls which have sent a request already, dropped along with the calls
+    private final Map<Call, Boolean> sentCalls = Collections.synchronizedMap(new WeakHashMap<Call, Boolean>());
+
+    RateLimitInterceptor(HttpInvoker invoker) {
+        this.invoker = invoker;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        RateLimiter rateLimiter = invoker.getRateLimiter();
+        if (rateLimiter != null && sentCalls.put(chain.call(), Boolean.TRUE) != null) {
+            rateLimiter.reserve(chain.request().url().host());
+        }
+
+        return chain.proceed(chain.request());
+    }
+}
@@ -0,0 +1,110 @@
+package com.astronlab.tut.utils.http;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Global and per host request rate limits of an invoker, see {@code InvokerConfig.setRateLimiter}. i.e.
+ * new RateLimiter().setGlobalRate(200, 50).setPerHostRate(5, 10).setHostRate("api.example.com", 20, 20)
+ *
+ * Blocking calls wait on the calling thread; async calls are only enqueued once their permit is due, so no
+ * dispatcher thread waits for it. Each call takes a token from both the global and the host's bucket, and so
+ * does every retry or redirect of it (waited for on the thread running the call).
+ */
+public class RateLimiter {
+    private volatile TokenBucket globalBucket;
+    private volatile double perHostRate;
+    private volatile int perHostBurst;
+    private final ConcurrentMap<String, TokenBucket> hostBuckets = new ConcurrentHashMap<>();
+
+    public RateLimiter setGlobalRate(double ratePerSecond, int burst) {
+        globalBucket = new TokenBucket(ratePerSecond, burst);
+
+        return this;
+    }
+
+    /**
+     * Default limit of every host without an explicit one, applies to the hosts seen afterwards
+     *
+     * @param ratePerSecond
+     * @param burst
+     * @return
+     */
+    public RateLimiter setPerHostRate(double ratePerSecond, int burst) {
+        perHostRate = ratePerSecond;
+        perHostBurst = burst;
+
+        return this;
+    }
+
+    public RateLimiter setHostRate(String host, double ratePerSecond, int burst) {
+        hostBuckets.put(host, new TokenBucket(ratePerSecond, burst));
+
+        return this;
+    }
+
+    /**
+     * @return nanoseconds to wait before calling the host
+     */
+    public long reserve(String host) {
+        TokenBucket global = globalBucket;
+        TokenBucket hostBucket = getHostBucket(host);
+
+        long wait = global == null ? 0 : global.reserve();
+        if (hostBucket != null) {
+            wait = Math.max(wait, hostBucket.reserve());
+        }
+
+        return wait;
+    }
+
+    /**
+     * Takes a token only if the host could be called right away, for optional calls (i.e. hedge requests)
+     *
+     * @return true if the call is allowed now
+     */
+    public boolean tryAcquire(String host) {
+        TokenBucket global = globalBucket;
+        TokenBucket hostBucket = getHostBucket(host);
+
+        //a host token taken while the global bucket is empty is lost, which only makes the limit stricter
+        return (hostBucket == null || hostBucket.tryAcquire()) && (global == null || global.tryAcquire());
+    }
+
+    /**
+     * @return nanoseconds until the host could be called without waiting, no token is taken
+     */
+    long nanosUntilAvailable(String host) {
+        TokenBucket global = globalBucket;
+        TokenBucket hostBucket = getHostBucket(host);
+
+        long wait = global == null ? 0 : global.nanosUntilAvailable();
+        if (hostBucket != null) {
+            wait = Math.max(wait, hostBucket.nanosUntilAvailable());
+        }
+
+        return wait;
+    }
+
+    public void acquire(String host) throws InterruptedIOException {
+        TokenBucket.sleep(reserve(host));
+    }
+
+    public CompletableFuture<Void> acquireAsync(String host) {
+        return TokenBucket.delay(reserve(host));
+    }
+
+    private TokenBucket getHostBucket(String host) {
+        TokenBucket bucket = hostBuckets.get(host);
+        if (bucket != null || perHostRate <= 0) {
+            return bucket;
+        }
+
+        TokenBucket newBucket = new TokenBucket(perHostRate, perHostBurst);
+        bucket = hostBuckets.putIfAbsent(host, newBucket);
+
+        return bucket != null ? bucket : newBucket;
+    }
+}
@@ -4,7 +4,10 @@ import okhttp3.FormBody;
 import okhttp3.MediaType;
 import okhttp3.MultipartBody;
 import okhttp3.RequestBody;
+import okio.Buffer;
 import okio.BufferedSink;
+import okio.Okio;
+import okio.Source;
 
 import java.io.File;
 import java.io.IOException;
@@ -21,6 +24,8 @@ public class RequestEntityBuilder {
     private MultipartBody.Builder multiPartFormBuilder = new MultipartBody.Builder();
     private SinglePartForm singlePartFormBuilder = new SinglePartForm();
     private RequestBodyType contentType = RequestBodyType.FORM_URLENCODED; //default body mime-type;
+    private Compression compression;
+    private long compressionThreshold;
 
     //used for both single/multi part forms
     private List<String> names = new ArrayList<>();
@@ -48,6 +53,19 @@ public class RequestEntityBuilder {
         }
     }
 
+    /**
+     * Content codings a request body could be compressed with, see {@code compress}
+     */
+    public enum Compression {
+        GZIP("gzip"), DEFLATE("deflate");
+
+        final String value;
+
+        Compression(String value) {
+            this.value = value;
+        }
+    }
+
     /**
      * This method is normally not required except the cases where we need to specifically set multipart "Sub-type"
      * Ref: https://en.wikipedia.org/wiki/MIME#Multipart_subtypes
@@ -99,6 +117,34 @@ public class RequestEntityBuilder {
         return singlePartFormBuilder.buildFromBinaryData(rawContent);
     }
 
+    /**
+     * Use-case: For posting the same form repeatedly where only a few params change, see {@code FormBodyTemplate}
+     *
+     * @param template
+     * @param values values of the template's variable params
+     * @return
+     */
+    public RequestEntityBuilder buildFromTemplate(FormBodyTemplate template, String... values) {
+        singlePartFormBuilder.requestBody = template.build(values);
+
+        return this;
+    }
+
+    /**
+     * Compresses the built body while it's being sent and sets the Content-Encoding header accordingly. Only use
+     * it if the server accepts compressed requests. Bodies of unknown length are always compressed.
+     *
+     * @param compression
+     * @param minBytes bodies smaller than this are sent as they are, compression rarely pays off for them
+     * @return
+     */
+    public RequestEntityBuilder compress(Compression compression, long minBytes) {
+        this.compression = compression;
+        compressionThreshold = minBytes;
+
+        return this;
+    }
+
     public RequestEntityBuilder addParams(HashMap<String, String> paramsMap) {
         for (Map.Entry<String, String> entry : paramsMap.entrySet()) {
             names.add(entry.getKey());
@@ -138,10 +184,46 @@ public class RequestEntityBuilder {
         return Files.probeContentType(file.toPath());
     }
 
+    /**
+     * Streams the file in fixed size segments while it's being sent, so memory usage of an upload doesn't depend
+     * on the file size. Content length is set from the file, hence the request isn't chunked.
+     *
+     * @param uploadName
+     * @param file
+     * @return progress handler of the upload, set its listener before the request is executed
+     * @throws IOException
+     */
     public BufferedSinkProgressHandler addStreamingData(String uploadName,
-                                                        File file) throws IOException {
-        return addStreamingData(uploadName, Files.readAllBytes(file.toPath()),
-                getFileMimeType(file));
+                                                        final File file) throws IOException {
+        final MediaType mediaType = parseMimeType(getFileMimeType(file));
+        final BufferedSinkProgressHandler progressHandler = new BufferedSinkProgressHandler();
+        singlePartFormBuilder.requestBody = new RequestBody() {
+
+            @Override
+            public MediaType contentType() {
+                return mediaType;
+            }
+
+            @Override
+            public long contentLength() throws IOException {
+                return file.length();
+            }
+
+            @Override
+            public void writeTo(BufferedSink sink) throws IOException {
+                progressHandler.wrap(sink);
+                Buffer buffer = new Buffer();
+                long read;
+
+                try (Source source = Okio.source(file)) {
+                    while ((read = source.read(buffer, FileDownloads.SEGMENT_SIZE)) != -1) {
+                        progressHandler.write(buffer, read);
+                    }
+                }
+            }
+        };
+
+        return progressHandler;
     }
 
     /**
@@ -150,26 +232,35 @@ public class RequestEntityBuilder {
      * @param name
      * @param bufferedContent
      * @param mimeType
-     * @return
+     * @return progress handler of the upload, set its listener before the request is executed
      */
     public BufferedSinkProgressHandler addStreamingData(String name,
                                                         final byte[] bufferedContent, final String mimeType) {
-        final BufferedSinkProgressHandler[] progressHandler = new BufferedSinkProgressHandler[0];
+        final MediaType mediaType = parseMimeType(mimeType);
+        final BufferedSinkProgressHandler progressHandler = new BufferedSinkProgressHandler();
         singlePartFormBuilder.requestBody = new RequestBody() {
 
             @Override
             public MediaType contentType() {
-                return MediaType.parse(mimeType);
+                return mediaType;
+            }
+
+            @Override
+            public long contentLength() throws IOException {
+                return bufferedContent.length;
             }
 
             @Override
             public void writeTo(BufferedSink sink) throws IOException {
-                progressHandler[0] = new BufferedSinkProgressHandler(sink);
-                progressHandler[0].write(bufferedContent);
+                progressHandler.wrap(sink).write(bufferedContent);
             }
         };
 
-        return progressHandler[0];
+        return progressHandler;
+    }
+
+    private static MediaType parseMimeType(String mimeType) {
+        return MediaType.parse(mimeType == null ? "application/octet-stream" : mimeType);
     }
 
     public RequestBody build() {
@@ -199,6 +290,10 @@ public class RequestEntityBuilder {
             }
         }
 
+        if (compression != null && shouldCompress(requestBody)) {
+            requestBody = new CompressedRequestBody(requestBody, compression);
+        }
+
         //Remove all references for faster GC
         multiPartFormBuilder = null;
         singlePartFormBuilder = null;
@@ -209,6 +304,17 @@ public class RequestEntityBuilder {
         return requestBody;
     }
 
+    private boolean shouldCompress(RequestBody requestBody) {
+        long length;
+        try {
+            length = requestBody.contentLength();
+        } catch (IOException e) {
+            length = -1;
+        }
+
+        return length < 0 || length >= compressionThreshold;
+    }
+
     private class SinglePartForm {
         private FormBody.Builder builder = new FormBody.Builder();
         private RequestBody requestBody;
@@ -232,24 +338,8 @@ public class RequestEntityBuilder {
         }
 
         RequestBody buildFromParams() {
-            requestBody = new RequestBody() {
-                final MediaType mediaType = contentType.value;
-
-                @Override
-                public long contentLength() throws IOException {
-                    return builder.build().contentLength();
-                }
-
-                @Override
-                public MediaType contentType() {
-                    return mediaType;
-                }
-
-                @Override
-                public void writeTo(BufferedSink sink) throws IOException {
-                    builder.build().writeTo(sink);
-                }
-            };
+            //encoded once here, then replayed as it is for each write
+            requestBody = EncodedFormBody.of(contentType.value, builder.build());
 
             return requestBody;
         }
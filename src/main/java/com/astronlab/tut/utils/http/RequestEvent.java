@@ -0,0 +1,76 @@
+package com.astronlab.tut.utils.http;
+
+import okhttp3.HttpUrl;
+
+/**
+ * Request lifecycle event published to a {@code RequestEventSink}. The url is kept as it is, so creating an
+ * event costs no string building on the requesting thread.
+ */
+public class RequestEvent {
+    public enum Type {START, END}
+
+    private final Type type;
+    private final String method;
+    private final HttpUrl url;
+    private final long timeMillis;
+    private final long durationNanos;
+    private final int code;
+    private final Throwable error;
+
+    RequestEvent(Type type, String method, HttpUrl url, long durationNanos, int code, Throwable error) {
+        this.type = type;
+        this.method = method;
+        this.url = url;
+        this.timeMillis = System.currentTimeMillis();
+        this.durationNanos = durationNanos;
+        this.code = code;
+        this.error = error;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public HttpUrl getUrl() {
+        return url;
+    }
+
+    public long getTimeMillis() {
+        return timeMillis;
+    }
+
+    /**
+     * @return time from the start of the request to its end, 0 for START events
+     */
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    /**
+     * @return response status, -1 if the call failed or its response was decoded without exposing it
+     */
+    public int getCode() {
+        return code;
+    }
+
+    /**
+     * @return failure of the call, null if it succeeded
+     */
+    public Throwable getError() {
+        return error;
+    }
+
+    @Override
+    public String toString() {
+        if (type == Type.START) {
+            return "START " + method + " " + url;
+        }
+
+        return "END " + method + " " + url + " " + (error != null ? error.toString() : String.valueOf(code))
+                + " in " + durationNanos / 1000000 + " ms";
+    }
+}
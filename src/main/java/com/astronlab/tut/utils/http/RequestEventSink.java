@@ -0,0 +1,119 @@
+package com.astronlab.tut.utils.http;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous request event pipeline of the invokers, see {@code InvokerConfig.setEventSink}. i.e.
+ * new RequestEventSink(IRequestEventExporter.STDOUT, 8192)
+ *
+ * Requesting threads only publish into a bounded lock-free ring buffer (a CAS on the head plus a slot write);
+ * a single daemon thread drains it into the exporter. If the exporter can't keep up and the ring is full, new
+ * events are dropped and counted instead of blocking the requests.
+ * Without a sink (the default) no event is even created.
+ */
+public class RequestEventSink {
+    private static final long MAX_IDLE_PARK_NANOS = 10000000;
+
+    private final IRequestEventExporter exporter;
+    private final AtomicReferenceArray<RequestEvent> ring;
+    private final int mask;
+    private final AtomicLong head = new AtomicLong(); //next sequence to claim by the producers
+    private volatile long tail; //next sequence to drain, written by the drain thread only
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread drainThread;
+    private volatile boolean closed;
+
+    /**
+     * @param exporter
+     * @param capacity max pending events, rounded up to a power of 2
+     */
+    public RequestEventSink(IRequestEventExporter exporter, int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        this.exporter = exporter;
+        this.ring = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+
+        drainThread = HttpFutures.daemonThreadFactory("request-event-sink").newThread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        });
+        drainThread.start();
+    }
+
+    /**
+     * @return false if the event was dropped (ring full or sink closed)
+     */
+    public boolean publish(RequestEvent event) {
+        if (closed) {
+            dropped.incrementAndGet();
+            return false;
+        }
+
+        long sequence;
+        do {
+            sequence = head.get();
+            if (sequence - tail >= ring.length()) {
+                dropped.incrementAndGet();
+                return false;
+            }
+        } while (!head.compareAndSet(sequence, sequence + 1));
+        ring.lazySet((int) (sequence & mask), event);
+
+        return true;
+    }
+
+    private void drain() {
+        long parkNanos = 1000;
+        while (true) {
+            long sequence = tail;
+            int index = (int) (sequence & mask);
+            RequestEvent event = ring.get(index);
+
+            if (event == null) {
+                if (head.get() != sequence) {
+                    Thread.yield(); //the slot is claimed, its event is about to be written
+                    continue;
+                }
+                if (closed) {
+                    return;
+                }
+                LockSupport.parkNanos(this, parkNanos);
+                parkNanos = Math.min(parkNanos * 2, MAX_IDLE_PARK_NANOS);
+                continue;
+            }
+            parkNanos = 1000;
+
+            ring.lazySet(index, null);
+            tail = sequence + 1;
+            try {
+                exporter.export(event);
+            } catch (RuntimeException e) {
+                //a failing exporter mustn't stop the pipeline
+            }
+        }
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * @return events published but not exported yet
+     */
+    public long getPendingCount() {
+        return head.get() - tail;
+    }
+
+    /**
+     * Stops accepting events, exports the pending ones and waits for the drain thread to finish
+     */
+    public void close() throws InterruptedException {
+        closed = true;
+        LockSupport.unpark(drainThread);
+        drainThread.join();
+    }
+}
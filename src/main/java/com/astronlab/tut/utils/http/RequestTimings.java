@@ -0,0 +1,201 @@
+package com.astronlab.tut.utils.http;
+
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Per host latency histograms of every phase of the calls, see {@code InvokerConfig.setRequestTimings}.
+ *
+ * Phases: dns, connect (TCP + TLS), tls, request_write (headers + body), ttfb (request written to the first
+ * response byte), body_read and total (the whole call, including retries and follow-ups). Phases of a reused
+ * connection (dns, connect, tls) simply aren't recorded for that call.
+ *
+ * {@code scrape()} renders all of them in the Prometheus text format, i.e. to be served from a /metrics endpoint.
+ */
+public class RequestTimings {
+    public enum Phase {DNS, CONNECT, TLS, REQUEST_WRITE, TTFB, BODY_READ, TOTAL}
+
+    private final ConcurrentMap<String, LatencyHistogram[]> histograms = new ConcurrentHashMap<>();
+
+    private final EventListener.Factory listenerFactory = new EventListener.Factory() {
+        @Override
+        public EventListener create(Call call) {
+            return new TimingListener(call.request().url().host());
+        }
+    };
+
+    EventListener.Factory getListenerFactory() {
+        return listenerFactory;
+    }
+
+    /**
+     * @return histogram of the host's phase, null if nothing has been recorded for it
+     */
+    public LatencyHistogram getHistogram(String host, Phase phase) {
+        LatencyHistogram[] hostHistograms = histograms.get(host);
+
+        return hostHistograms == null ? null : hostHistograms[phase.ordinal()];
+    }
+
+    void record(String host, Phase phase, long nanos) {
+        LatencyHistogram[] hostHistograms = histograms.get(host);
+        if (hostHistograms == null) {
+            LatencyHistogram[] newHistograms = new LatencyHistogram[Phase.values().length];
+            for (int i = 0; i < newHistograms.length; i++) {
+                newHistograms[i] = new LatencyHistogram();
+            }
+            hostHistograms = histograms.putIfAbsent(host, newHistograms);
+            if (hostHistograms == null) {
+                hostHistograms = newHistograms;
+            }
+        }
+        hostHistograms[phase.ordinal()].record(nanos);
+    }
+
+    public void reset() {
+        histograms.clear();
+    }
+
+    /**
+     * @return every histogram as "http_client_phase_seconds" in the Prometheus text exposition format
+     */
+    public String scrape() {
+        StringBuilder out = new StringBuilder(4096);
+        out.append("# HELP http_client_phase_seconds Latency of the http call phases per host\n");
+        out.append("# TYPE http_client_phase_seconds histogram\n");
+
+        Map<String, LatencyHistogram[]> sorted = new TreeMap<>(histograms);
+        for (Map.Entry<String, LatencyHistogram[]> entry : sorted.entrySet()) {
+            for (Phase phase : Phase.values()) {
+                LatencyHistogram histogram = entry.getValue()[phase.ordinal()];
+                long[] counts = histogram.getBucketCounts();
+                if (histogram.getCount() == 0) {
+                    continue;
+                }
+
+                String labels = "host=\"" + entry.getKey() + "\",phase=\"" + phase.name().toLowerCase(Locale.ROOT) + "\"";
+                long cumulative = 0;
+                for (int i = 0; i < counts.length; i++) {
+                    cumulative += counts[i];
+                    String bound = i < LatencyHistogram.BOUNDS_MILLIS.length
+                            ? String.valueOf(LatencyHistogram.BOUNDS_MILLIS[i] / 1000) : "+Inf";
+                    out.append("http_client_phase_seconds_bucket{").append(labels).append(",le=\"").append(bound)
+                            .append("\"} ").append(cumulative).append('\n');
+                }
+                out.append("http_client_phase_seconds_sum{").append(labels).append("} ")
+                        .append(histogram.getSumNanos() / 1e9).append('\n');
+                out.append("http_client_phase_seconds_count{").append(labels).append("} ")
+                        .append(cumulative).append('\n');
+            }
+        }
+
+        return out.toString();
+    }
+
+    /**
+     * One per call, the events of a call are delivered sequentially so no synchronization is needed
+     */
+    private class TimingListener extends EventListener {
+        private final String host;
+        private long callStart, dnsStart, connectStart, tlsStart, requestStart, requestEnd, bodyStart;
+
+        TimingListener(String host) {
+            this.host = host;
+        }
+
+        @Override
+        public void callStart(Call call) {
+            callStart = System.nanoTime();
+        }
+
+        @Override
+        public void dnsStart(Call call, String domainName) {
+            dnsStart = System.nanoTime();
+        }
+
+        @Override
+        public void dnsEnd(Call call, String domainName, List<InetAddress> inetAddressList) {
+            record(host, Phase.DNS, System.nanoTime() - dnsStart);
+        }
+
+        @Override
+        public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+            connectStart = System.nanoTime();
+        }
+
+        @Override
+        public void secureConnectStart(Call call) {
+            tlsStart = System.nanoTime();
+        }
+
+        @Override
+        public void secureConnectEnd(Call call, Handshake handshake) {
+            record(host, Phase.TLS, System.nanoTime() - tlsStart);
+        }
+
+        @Override
+        public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol) {
+            record(host, Phase.CONNECT, System.nanoTime() - connectStart);
+        }
+
+        @Override
+        public void requestHeadersStart(Call call) {
+            requestStart = System.nanoTime();
+        }
+
+        @Override
+        public void requestHeadersEnd(Call call, Request request) {
+            requestEnd = System.nanoTime();
+            if (request.body() == null) {
+                record(host, Phase.REQUEST_WRITE, requestEnd - requestStart);
+            }
+        }
+
+        @Override
+        public void requestBodyEnd(Call call, long byteCount) {
+            requestEnd = System.nanoTime();
+            record(host, Phase.REQUEST_WRITE, requestEnd - requestStart);
+        }
+
+        @Override
+        public void responseHeadersEnd(Call call, Response response) {
+            //headersStart only marks the start of the wait, the headers are parsed as soon as they arrive
+            record(host, Phase.TTFB, System.nanoTime() - requestEnd);
+        }
+
+        @Override
+        public void responseBodyStart(Call call) {
+            bodyStart = System.nanoTime();
+        }
+
+        @Override
+        public void responseBodyEnd(Call call, long byteCount) {
+            record(host, Phase.BODY_READ, System.nanoTime() - bodyStart);
+        }
+
+        @Override
+        public void callEnd(Call call) {
+            record(host, Phase.TOTAL, System.nanoTime() - callStart);
+        }
+
+        @Override
+        public void callFailed(Call call, IOException ioe) {
+            record(host, Phase.TOTAL, System.nanoTime() - callStart);
+        }
+    }
+}
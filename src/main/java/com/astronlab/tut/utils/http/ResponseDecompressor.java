@@ -0,0 +1,110 @@
+package com.astronlab.tut.utils.http;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.Inflater;
+
+/**
+ * Decodes gzip/deflate response bodies of an invoker while they're read, see
+ * {@code InvokerConfig.setResponseDecompressor}. i.e. config.setResponseDecompressor(new ResponseDecompressor(64))
+ *
+ * - The compressed body is never staged: every read inflates just what the caller asked for.
+ * - Inflaters (with their input/output buffers) are taken from a bounded pool and returned once the body is
+ *   fully read or closed, instead of allocating a native zlib stream and its buffers per response.
+ * - Compressed (as received, including the gzip header/trailer) and uncompressed byte counts are kept for
+ *   every decoded body.
+ */
+public class ResponseDecompressor {
+    static final int BUFFER_SIZE = 8192;
+
+    private final BlockingQueue<PooledInflater> gzipInflaters, zlibInflaters;
+    private final LongAdder responseCount = new LongAdder();
+    private final LongAdder compressedBytes = new LongAdder(), uncompressedBytes = new LongAdder();
+
+    /**
+     * @param maxPooledInflaters idle inflaters kept per format (raw deflate for gzip, zlib for deflate); around
+     *                           the number of bodies read at once
+     */
+    public ResponseDecompressor(int maxPooledInflaters) {
+        if (maxPooledInflaters < 1) {
+            throw new IllegalArgumentException("maxPooledInflaters must be > 0");
+        }
+        gzipInflaters = new ArrayBlockingQueue<>(maxPooledInflaters);
+        zlibInflaters = new ArrayBlockingQueue<>(maxPooledInflaters);
+    }
+
+    /**
+     * @param nowrap true for raw deflate data (gzip bodies), false for zlib wrapped data
+     * @return
+     */
+    PooledInflater acquire(boolean nowrap) {
+        PooledInflater inflater = (nowrap ? gzipInflaters : zlibInflaters).poll();
+
+        return inflater != null ? inflater : new PooledInflater(nowrap);
+    }
+
+    void release(PooledInflater inflater) {
+        inflater.inflater.reset();
+        if (!(inflater.nowrap ? gzipInflaters : zlibInflaters).offer(inflater)) {
+            inflater.inflater.end(); //pool is full, free the native memory right away
+        }
+    }
+
+    void onResponse() {
+        responseCount.increment();
+    }
+
+    void onCompressed(long bytes) {
+        compressedBytes.add(bytes);
+    }
+
+    void onUncompressed(long bytes) {
+        uncompressedBytes.add(bytes);
+    }
+
+    /**
+     * @return bodies decoded (or being decoded) so far
+     */
+    public long getResponseCount() {
+        return responseCount.sum();
+    }
+
+    public long getCompressedBytes() {
+        return compressedBytes.sum();
+    }
+
+    public long getUncompressedBytes() {
+        return uncompressedBytes.sum();
+    }
+
+    /**
+     * @return uncompressed / compressed bytes, 0 if nothing was decoded yet
+     */
+    public double getCompressionRatio() {
+        long compressed = compressedBytes.sum();
+
+        return compressed == 0 ? 0 : (double) uncompressedBytes.sum() / compressed;
+    }
+
+    public int getPooledInflaters() {
+        return gzipInflaters.size() + zlibInflaters.size();
+    }
+
+    @Override
+    public String toString() {
+        return "responses=" + getResponseCount() + ", compressed=" + getCompressedBytes()
+                + ", uncompressed=" + getUncompressedBytes() + ", pooled=" + getPooledInflaters();
+    }
+
+    static class PooledInflater {
+        final Inflater inflater;
+        final boolean nowrap;
+        final byte[] input = new byte[BUFFER_SIZE], output = new byte[BUFFER_SIZE];
+
+        PooledInflater(boolean nowrap) {
+            this.nowrap = nowrap;
+            inflater = new Inflater(nowrap);
+        }
+    }
+}
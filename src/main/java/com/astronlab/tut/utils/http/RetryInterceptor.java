@@ -0,0 +1,103 @@
+package com.astronlab.tut.utils.http;
+
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies a {@code RetryPolicy} around every call of the client. The backoff sleeps on the thread executing the
+ * call (the caller for blocking calls, a dispatcher thread for async ones, which keeps holding its dispatcher
+ * slots meanwhile), so the total wait of a call is bounded by {@code RetryPolicy.setMaxTotalBackoff}. A
+ * cancelled call is never retried, the wait is cut short as soon as it's cancelled. A retry also waits for the
+ * invoker's rate limit, before it takes a connection (the token is taken by {@code RateLimitInterceptor}).
+ */
+class RetryInterceptor implements StagedInterceptor {
+    private static final long CANCEL_CHECK_MILLIS = 50;
+
+    private final RetryPolicy policy;
+    private final HttpInvoker invoker;
+
+    RetryInterceptor(RetryPolicy policy, HttpInvoker invoker) {
+        this.policy = policy;
+        this.invoker = invoker;
+    }
+
+    @Override
+    public int stage() {
+        return STAGE_RETRY;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        boolean retryable = policy.isRetryable(request);
+        long waited = 0;
+
+        for (int attempt = 1; ; attempt++) {
+            Response response = null;
+            IOException error = null;
+            try {
+                response = chain.proceed(request);
+            } catch (IOException e) {
+                error = e;
+            }
+
+            //a cancelled call fails with whatever its socket threw (i.e. SocketException), that is no network error
+            boolean canceled = chain.call().isCanceled();
+            boolean failed = error != null || policy.shouldRetry(response.code());
+            boolean retry = failed && !canceled && retryable && attempt < policy.getMaxAttempts()
+                    && (error == null || (!(error instanceof CircuitOpenException) && policy.shouldRetry(error)));
+            long delay = retry ? policy.backoffMillis(attempt, response) : 0;
+            if (retry && waited + delay > policy.getMaxTotalBackoffMillis()) {
+                retry = false;
+            }
+
+            if (!retry) {
+                if (failed && !canceled && attempt > 1) {
+                    policy.notifyGiveUp(request, attempt);
+                }
+                if (error != null) {
+                    throw error;
+                }
+                return response;
+            }
+
+            if (response != null) {
+                response.body().close();
+            }
+            policy.notifyRetry(request, attempt);
+
+            sleep(chain, delay);
+            waited += delay;
+            RateLimiter rateLimiter = invoker.getRateLimiter();
+            if (rateLimiter != null) {
+                long rateWait = rateLimiter.nanosUntilAvailable(request.url().host());
+                sleep(chain, TimeUnit.NANOSECONDS.toMillis(rateWait + 999999)); //rounded up
+            }
+        }
+    }
+
+    /**
+     * Sleeps in short steps, OkHttp's cancel doesn't interrupt the thread
+     */
+    private static void sleep(Chain chain, long millis) throws IOException {
+        long deadline = System.nanoTime() + millis * 1000000;
+        try {
+            for (long left = millis; left > 0; left = (deadline - System.nanoTime()) / 1000000) {
+                if (chain.call().isCanceled()) {
+                    throw new IOException("Canceled");
+                }
+                Thread.sleep(Math.min(left, CANCEL_CHECK_MILLIS));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry " + chain.request().url());
+        }
+        if (chain.call().isCanceled()) {
+            throw new IOException("Canceled");
+        }
+    }
+}
@@ -0,0 +1,184 @@
+package com.astronlab.tut.utils.http;
+
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
+
+/**
+ * Retry settings of an invoker, see {@code InvokerConfig.setRetryPolicy}. i.e.
+ * new RetryPolicy().setMaxAttempts(4).setBackoff(200, 5000).setListener(listener)
+ *
+ * Delays grow exponentially (initial * multiplier^(attempt-1), capped at max) and a random part of each delay
+ * ({@code jitter}) is cut off so that clients failing together don't retry together. A server's Retry-After
+ * (in seconds) is honored up to the max delay. Non-idempotent requests (POST, PATCH) are only retried if
+ * allowed explicitly or if they carry an "Idempotency-Key" header.
+ */
+public class RetryPolicy {
+    private int maxAttempts = 3;
+    private long initialBackoffMillis = 200, maxBackoffMillis = 10000, maxTotalBackoffMillis = 30000;
+    private double multiplier = 2, jitter = 0.5;
+    private boolean retryNonIdempotent = false;
+    private IHttpProgressListener listener;
+
+    private IntPredicate retryOnStatus = new IntPredicate() {
+        @Override
+        public boolean test(int code) {
+            return code == 408 || code == 429 || code == 500 || code == 502 || code == 503 || code == 504;
+        }
+    };
+
+    //connect failures, resets and timeouts; a cancelled call is never retried whatever it failed with
+    private Predicate<IOException> retryOnException = new Predicate<IOException>() {
+        @Override
+        public boolean test(IOException e) {
+            return e instanceof SocketTimeoutException || e instanceof SocketException;
+        }
+    };
+
+    /**
+     * @param maxAttempts including the first one
+     * @return
+     */
+    public RetryPolicy setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+
+        return this;
+    }
+
+    public RetryPolicy setBackoff(long initialMillis, long maxMillis) {
+        this.initialBackoffMillis = initialMillis;
+        this.maxBackoffMillis = maxMillis;
+
+        return this;
+    }
+
+    /**
+     * A call gives up once its next delay would take the sum of its delays over this. The delays are slept on
+     * the calling thread; for async calls that's a dispatcher thread holding its (per host) request slot.
+     *
+     * @param maxTotalMillis
+     * @return
+     */
+    public RetryPolicy setMaxTotalBackoff(long maxTotalMillis) {
+        this.maxTotalBackoffMillis = maxTotalMillis;
+
+        return this;
+    }
+
+    public RetryPolicy setMultiplier(double multiplier) {
+        this.multiplier = multiplier;
+
+        return this;
+    }
+
+    /**
+     * @param jitter fraction(0 to 1) of a delay which is randomized
+     * @return
+     */
+    public RetryPolicy setJitter(double jitter) {
+        this.jitter = jitter;
+
+        return this;
+    }
+
+    public RetryPolicy setRetryOnStatus(IntPredicate retryOnStatus) {
+        this.retryOnStatus = retryOnStatus;
+
+        return this;
+    }
+
+    public RetryPolicy setRetryOnException(Predicate<IOException> retryOnException) {
+        this.retryOnException = retryOnException;
+
+        return this;
+    }
+
+    public RetryPolicy setRetryNonIdempotent(boolean retryNonIdempotent) {
+        this.retryNonIdempotent = retryNonIdempotent;
+
+        return this;
+    }
+
+    /**
+     * Every retry is reported as (Status.FAILS, UpdateType.STATUS, "Retrying.. (attempt/max) url") and giving
+     * up as (Status.FAILS, UpdateType.STATUS, "Failed (attempts) url")
+     *
+     * @param listener
+     * @return
+     */
+    public RetryPolicy setListener(IHttpProgressListener listener) {
+        this.listener = listener;
+
+        return this;
+    }
+
+    int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    long getMaxTotalBackoffMillis() {
+        return maxTotalBackoffMillis;
+    }
+
+    boolean isRetryable(Request request) {
+        String method = request.method();
+        boolean idempotent = !"POST".equals(method) && !"PATCH".equals(method);
+
+        return idempotent || retryNonIdempotent || request.header("Idempotency-Key") != null;
+    }
+
+    boolean shouldRetry(int code) {
+        return retryOnStatus.test(code);
+    }
+
+    boolean shouldRetry(IOException e) {
+        return retryOnException.test(e);
+    }
+
+    /**
+     * @param attempt  the attempt which has just failed, starting from 1
+     * @param response its response, null if it failed with an exception
+     * @return
+     */
+    long backoffMillis(int attempt, Response response) {
+        long retryAfter = response == null ? -1 : parseRetryAfter(response.header("Retry-After"));
+        if (retryAfter >= 0) {
+            return Math.min(retryAfter, maxBackoffMillis);
+        }
+
+        double delay = Math.min(maxBackoffMillis, initialBackoffMillis * Math.pow(multiplier, attempt - 1));
+
+        return (long) (delay * (1 - jitter * ThreadLocalRandom.current().nextDouble()));
+    }
+
+    private static long parseRetryAfter(String value) {
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.trim()) * 1000;
+        } catch (NumberFormatException e) {
+            return -1; //http-date form isn't supported, fall back to the backoff
+        }
+    }
+
+    void notifyRetry(Request request, int attempt) {
+        if (listener != null) {
+            listener.notifyListener(IHttpProgressListener.Status.FAILS, IHttpProgressListener.UpdateType.STATUS,
+                    IHttpProgressListener.RETRY_MSG + " (" + (attempt + 1) + "/" + maxAttempts + ") " + request.url());
+        }
+    }
+
+    void notifyGiveUp(Request request, int attempts) {
+        if (listener != null) {
+            listener.notifyListener(IHttpProgressListener.Status.FAILS, IHttpProgressListener.UpdateType.STATUS,
+                    IHttpProgressListener.FAILS_MSG + " (" + attempts + ") " + request.url());
+        }
+    }
+}
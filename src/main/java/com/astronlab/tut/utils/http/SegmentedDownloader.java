@@ -0,0 +1,366 @@
+package com.astronlab.tut.utils.http;
+
+import okhttp3.Response;
+import okio.Buffer;
+import okio.BufferedSource;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Downloads a file via multiple parallel HTTP Range requests on the invoker's (shared) client.
+ * i.e. new SegmentedDownloader(invoker, url, new File("big.iso")).setSegments(8).download();
+ *
+ * The file is preallocated as "[file].part" and every segment is written straight to its own region.
+ * Progress is kept in a small "[file].part.manifest" sidecar, so an interrupted download resumes only the
+ * missing ranges next time. If the server doesn't support ranges (or only serves the file content-encoded), it
+ * falls back to a single stream download.
+ */
+public class SegmentedDownloader {
+    private static final long MIN_SEGMENT_SIZE = 1024 * 1024;
+    private static final long MANIFEST_SAVE_INTERVAL = 4 * 1024 * 1024;
+
+    private final HttpInvoker invoker;
+    private final String url;
+    private final File file;
+    private int segments = 4;
+    private boolean syncToDisk = false;
+
+    private Manifest manifest;
+    private final AtomicLong unsavedBytes = new AtomicLong();
+
+    public SegmentedDownloader(HttpInvoker invoker, String url, File file) {
+        this.invoker = invoker;
+        this.url = url;
+        this.file = file.getAbsoluteFile();
+    }
+
+    public SegmentedDownloader setSegments(int segments) {
+        if (segments < 1) {
+            throw new IllegalArgumentException("segments must be > 0");
+        }
+        this.segments = segments;
+
+        return this;
+    }
+
+    public SegmentedDownloader setSyncToDisk(boolean syncToDisk) {
+        this.syncToDisk = syncToDisk;
+
+        return this;
+    }
+
+    public File download() throws Exception {
+        RemoteFile remoteFile = probe();
+        File partFile = new File(file.getPath() + ".part");
+        File manifestFile = new File(partFile.getPath() + ".manifest");
+
+        if (!remoteFile.isRangeSupported()) {
+            //the stream download rewrites the same .part file, an earlier segmented run's state mustn't outlive it
+            Files.deleteIfExists(manifestFile.toPath());
+            Files.deleteIfExists(new File(manifestFile.getPath() + ".tmp").toPath());
+            invoker.newRequest(url).downloadDataToFile(file.getPath(), syncToDisk).closeNReleaseResource();
+            return file;
+        }
+
+        manifest = Manifest.load(manifestFile);
+        if (manifest == null || !manifest.matches(url, remoteFile) || !partFile.exists()) {
+            manifest = Manifest.create(manifestFile, url, remoteFile, segments);
+            try (RandomAccessFile raf = new RandomAccessFile(partFile, "rw")) {
+                raf.setLength(remoteFile.length);
+            }
+            manifest.save();
+        }
+
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (Range range : manifest.ranges) {
+            if (!range.isComplete()) {
+                tasks.add(new SegmentTask(partFile, range, remoteFile));
+            }
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, tasks.size()));
+        try {
+            for (Future<Void> future : executor.invokeAll(tasks)) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        } finally {
+            executor.shutdownNow();
+            manifest.save(); //keep whatever is done so far for the next attempt
+        }
+
+        if (syncToDisk) {
+            try (FileChannel channel = FileChannel.open(partFile.toPath(), StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+        }
+        FileDownloads.moveAtomically(partFile.toPath(), file.toPath());
+        Files.deleteIfExists(manifestFile.toPath());
+
+        return file;
+    }
+
+    /**
+     * Asks for the first byte only: a 206 answer proves range support and its Content-Range carries the total
+     * length. The identity encoding is requested explicitly, a compressed length must never size the ranges.
+     */
+    private RemoteFile probe() throws IOException {
+        HttpRequestContext context = invoker.newRequest(url)
+                .addRequestHeader("Range", "bytes=0-0")
+                .addRequestHeader("Accept-Encoding", "identity");
+
+        try {
+            Response response = context.getHttpResponse();
+            RemoteFile remoteFile = new RemoteFile();
+            long[] contentRange = parseContentRange(response.header("Content-Range"));
+            remoteFile.acceptRanges = response.code() == 206 && contentRange != null && contentRange[0] == 0
+                    && response.header("Content-Encoding") == null;
+            remoteFile.length = contentRange == null ? -1 : contentRange[2];
+            remoteFile.validator = response.header("ETag");
+            if (remoteFile.validator == null) {
+                remoteFile.validator = response.header("Last-Modified");
+            }
+
+            return remoteFile;
+        } finally {
+            context.closeNReleaseResource();
+        }
+    }
+
+    /**
+     * @param value i.e. "bytes 0-1023/4096"
+     * @return {start, end, total}, null if it's missing, malformed or the total is unknown ("*")
+     */
+    private static long[] parseContentRange(String value) {
+        if (value == null || !value.trim().startsWith("bytes ")) {
+            return null;
+        }
+
+        String range = value.trim().substring("bytes ".length()).trim();
+        int dash = range.indexOf('-'), slash = range.indexOf('/');
+        if (dash < 0 || slash < dash) {
+            return null;
+        }
+
+        long start = parseLength(range.substring(0, dash));
+        long end = parseLength(range.substring(dash + 1, slash));
+        long total = parseLength(range.substring(slash + 1));
+        if (start < 0 || end < start || total <= end) {
+            return null;
+        }
+
+        return new long[]{start, end, total};
+    }
+
+    private static long parseLength(String value) {
+        try {
+            return value == null ? -1 : Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private void onBytesWritten(long count, FileChannel channel) throws IOException {
+        if (unsavedBytes.addAndGet(count) >= MANIFEST_SAVE_INTERVAL) {
+            unsavedBytes.set(0);
+            if (syncToDisk) {
+                channel.force(false);
+            }
+            manifest.save();
+        }
+    }
+
+    private class SegmentTask implements Callable<Void> {
+        private final File partFile;
+        private final Range range;
+        private final RemoteFile remoteFile;
+
+        SegmentTask(File partFile, Range range, RemoteFile remoteFile) {
+            this.partFile = partFile;
+            this.range = range;
+            this.remoteFile = remoteFile;
+        }
+
+        @Override
+        public Void call() throws Exception {
+            long from = range.start + range.done.get();
+            HttpRequestContext context = invoker.newRequest(url)
+                    .addRequestHeader("Range", "bytes=" + from + "-" + range.end)
+                    .addRequestHeader("Accept-Encoding", "identity");
+            if (remoteFile.validator != null) {
+                context.addRequestHeader("If-Range", remoteFile.validator);
+            }
+
+            try (FileChannel channel = FileChannel.open(partFile.toPath(), StandardOpenOption.WRITE)) {
+                Response response = context.getHttpResponse();
+                if (response.code() != 206) {
+                    throw new IOException("Range request of " + url + " failed with status " + response.code()
+                            + ", the remote file might have changed");
+                }
+                long[] contentRange = parseContentRange(response.header("Content-Range"));
+                if (contentRange == null || contentRange[0] != from || contentRange[2] != remoteFile.length
+                        || response.header("Content-Encoding") != null) {
+                    throw new IOException("Range request of " + url + " for bytes " + from + "-" + range.end
+                            + " was answered with an unexpected range: " + response.header("Content-Range")
+                            + (response.header("Content-Encoding") != null
+                            ? " (" + response.header("Content-Encoding") + " encoded)" : ""));
+                }
+
+                channel.position(from);
+                OutputStream channelStream = Channels.newOutputStream(channel);
+                BufferedSource source = response.body().source();
+                Buffer buffer = new Buffer();
+                long remaining = range.end - from + 1, read;
+
+                while (remaining > 0 && (read = source.read(buffer,
+                        Math.min(FileDownloads.SEGMENT_SIZE, remaining))) != -1) {
+                    buffer.writeTo(channelStream);
+                    remaining -= read;
+                    range.done.addAndGet(read);
+                    onBytesWritten(read, channel);
+                }
+
+                if (remaining > 0) {
+                    throw new IOException("Unexpected end of stream for range " + range);
+                }
+            } finally {
+                context.closeNReleaseResource();
+            }
+
+            return null;
+        }
+    }
+
+    private static class RemoteFile {
+        boolean acceptRanges;
+        long length;
+        String validator;
+
+        boolean isRangeSupported() {
+            return acceptRanges && length > 0;
+        }
+    }
+
+    private static class Range {
+        final long start, end; //inclusive
+        final AtomicLong done = new AtomicLong();
+
+        Range(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        boolean isComplete() {
+            return start + done.get() > end;
+        }
+
+        @Override
+        public String toString() {
+            return start + "-" + end;
+        }
+    }
+
+    /**
+     * Sidecar file format (java properties):
+     * url, length, validator(ETag/Last-Modified), segments, range.[i]=[start]-[end], done.[i]=[bytes written]
+     */
+    private static class Manifest {
+        private final File manifestFile;
+        private String url, validator;
+        private long length;
+        private final List<Range> ranges = new ArrayList<>();
+
+        private Manifest(File manifestFile) {
+            this.manifestFile = manifestFile;
+        }
+
+        static Manifest create(File manifestFile, String url, RemoteFile remoteFile, int segments) {
+            Manifest manifest = new Manifest(manifestFile);
+            manifest.url = url;
+            manifest.length = remoteFile.length;
+            manifest.validator = remoteFile.validator;
+
+            long count = Math.max(1, Math.min(segments, (remoteFile.length + MIN_SEGMENT_SIZE - 1) / MIN_SEGMENT_SIZE));
+            long segmentSize = (remoteFile.length + count - 1) / count;
+            for (long start = 0; start < remoteFile.length; start += segmentSize) {
+                manifest.ranges.add(new Range(start, Math.min(start + segmentSize, remoteFile.length) - 1));
+            }
+
+            return manifest;
+        }
+
+        static Manifest load(File manifestFile) {
+            if (!manifestFile.exists()) {
+                return null;
+            }
+
+            Properties props = new Properties();
+            try (InputStream in = new FileInputStream(manifestFile)) {
+                props.load(in);
+                Manifest manifest = new Manifest(manifestFile);
+                manifest.url = props.getProperty("url");
+                manifest.validator = props.getProperty("validator");
+                manifest.length = Long.parseLong(props.getProperty("length"));
+
+                int segments = Integer.parseInt(props.getProperty("segments"));
+                for (int i = 0; i < segments; i++) {
+                    String[] bounds = props.getProperty("range." + i).split("-");
+                    Range range = new Range(Long.parseLong(bounds[0]), Long.parseLong(bounds[1]));
+                    range.done.set(Long.parseLong(props.getProperty("done." + i)));
+                    manifest.ranges.add(range);
+                }
+
+                return manifest;
+            } catch (IOException | RuntimeException e) {
+                return null; //unreadable manifest, start over
+            }
+        }
+
+        boolean matches(String url, RemoteFile remoteFile) {
+            return this.url.equals(url) && length == remoteFile.length
+                    && (validator == null ? remoteFile.validator == null : validator.equals(remoteFile.validator));
+        }
+
+        synchronized void save() throws IOException {
+            Properties props = new Properties();
+            props.setProperty("url", url);
+            props.setProperty("length", String.valueOf(length));
+            if (validator != null) {
+                props.setProperty("validator", validator);
+            }
+            props.setProperty("segments", String.valueOf(ranges.size()));
+            for (int i = 0; i < ranges.size(); i++) {
+                Range range = ranges.get(i);
+                props.setProperty("range." + i, range.toString());
+                props.setProperty("done." + i, String.valueOf(range.done.get()));
+            }
+
+            Path tempFile = new File(manifestFile.getPath() + ".tmp").toPath();
+            try (OutputStream out = new FileOutputStream(tempFile.toFile())) {
+                props.store(out, "Segmented download state");
+            }
+            FileDownloads.moveAtomically(tempFile, manifestFile.toPath());
+        }
+    }
+}
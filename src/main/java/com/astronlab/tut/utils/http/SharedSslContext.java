@@ -0,0 +1,166 @@
+package com.astronlab.tut.utils.http;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509TrustManager;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyManagementException;
+import java.security.KeyStore;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * SSL settings shared by every invoker which uses them: one SSLContext, socket factory, trust manager and
+ * hostname verifier per kind, created lazily on first use.
+ *
+ * Sharing matters beyond the context creation cost: TLS sessions are cached per SSLContext, so only invokers
+ * on the same context can resume each other's sessions (abbreviated handshakes). And OkHttp pools a connection
+ * by its address, which includes the socket factory and the verifier, so invokers with equal instances reuse
+ * each other's pooled connections as well.
+ */
+public class SharedSslContext {
+    private static final Object TRUST_ALL_LOCK = new Object();
+    private static volatile SharedSslContext trustAll;
+    private static final ConcurrentMap<String, SharedSslContext> TRUST_STORES = new ConcurrentHashMap<>();
+
+    private static final HostnameVerifier ACCEPT_ALL_HOSTS = new HostnameVerifier() {
+        @Override
+        public boolean verify(String hostname, SSLSession session) {
+            return true;
+        }
+    };
+
+    private final SSLContext sslContext;
+    private final SSLSocketFactory socketFactory;
+    private final X509TrustManager trustManager;
+    private final HostnameVerifier hostnameVerifier; //null for the default verifier
+
+    private SharedSslContext(X509TrustManager trustManager, HostnameVerifier hostnameVerifier)
+            throws NoSuchAlgorithmException, KeyManagementException {
+        this.sslContext = SSLContext.getInstance("TLS");
+        this.sslContext.init(null, new TrustManager[]{trustManager}, null);
+        this.socketFactory = sslContext.getSocketFactory();
+        this.trustManager = trustManager;
+        this.hostnameVerifier = hostnameVerifier;
+    }
+
+    /**
+     * Trusts every certificate and host name; for testing only
+     */
+    public static SharedSslContext trustAll() throws NoSuchAlgorithmException, KeyManagementException {
+        SharedSslContext context = trustAll;
+        if (context == null) {
+            synchronized (TRUST_ALL_LOCK) {
+                context = trustAll;
+                if (context == null) {
+                    context = new SharedSslContext(new TrustAllCertsManager(), ACCEPT_ALL_HOSTS);
+                    trustAll = context;
+                }
+            }
+        }
+
+        return context;
+    }
+
+    /**
+     * Trusts the certificates of the key store file (with the default host name verification).
+     * The store is loaded once per file, type and password.
+     *
+     * @param trustStore
+     * @param password   null if the store isn't protected
+     * @param type       i.e. "JKS" or "PKCS12"
+     * @return
+     */
+    public static SharedSslContext forTrustStore(File trustStore, char[] password, String type)
+            throws IOException, GeneralSecurityException {
+        String key = trustStore.getCanonicalPath() + "|" + type + "|"
+                + (password == null ? 0 : new String(password).hashCode());
+        SharedSslContext context = TRUST_STORES.get(key);
+        if (context != null) {
+            return context;
+        }
+
+        KeyStore keyStore = KeyStore.getInstance(type);
+        try (InputStream in = new FileInputStream(trustStore)) {
+            keyStore.load(in, password);
+        }
+        TrustManagerFactory factory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        factory.init(keyStore);
+
+        X509TrustManager trustManager = null;
+        for (TrustManager manager : factory.getTrustManagers()) {
+            if (manager instanceof X509TrustManager) {
+                trustManager = (X509TrustManager) manager;
+            }
+        }
+        if (trustManager == null) {
+            throw new GeneralSecurityException("No X509 trust manager for " + trustStore);
+        }
+
+        SharedSslContext newContext = new SharedSslContext(trustManager, null);
+        context = TRUST_STORES.putIfAbsent(key, newContext);
+
+        return context != null ? context : newContext;
+    }
+
+    /**
+     * Tunes the client session cache of this context, which is what session resumption draws from
+     *
+     * @param size           max cached sessions, 0 for no limit
+     * @param timeoutSeconds session lifetime, 0 for no limit
+     * @return
+     */
+    public SharedSslContext setSessionCache(int size, int timeoutSeconds) {
+        SSLSessionContext sessions = sslContext.getClientSessionContext();
+        sessions.setSessionCacheSize(size);
+        sessions.setSessionTimeout(timeoutSeconds);
+
+        return this;
+    }
+
+    public SSLContext getSslContext() {
+        return sslContext;
+    }
+
+    public SSLSocketFactory getSocketFactory() {
+        return socketFactory;
+    }
+
+    public X509TrustManager getTrustManager() {
+        return trustManager;
+    }
+
+    /**
+     * @return null if the default host name verification applies
+     */
+    public HostnameVerifier getHostnameVerifier() {
+        return hostnameVerifier;
+    }
+
+    private static class TrustAllCertsManager implements X509TrustManager {
+
+        @Override
+        public void checkClientTrusted(X509Certificate[] x509Certificates, String s) {
+        }
+
+        @Override
+        public void checkServerTrusted(X509Certificate[] x509Certificates, String s) {
+        }
+
+        @Override
+        public X509Certificate[] getAcceptedIssuers() {
+            return new X509Certificate[0];
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.astronlab.tut.utils.http;
+
+import okio.Buffer;
+import okio.ForwardingSource;
+import okio.Source;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Download side counterpart of {@code BufferedSinkProgressHandler}: wraps a response source and reports the
+ * downloaded bytes, throughput and ETA to an {@code ITransferProgressListener} and/or {@code IHttpProgressListener}.
+ *
+ * The read loop only increments counters; the clock is checked once every {@code clockCheckBytes} and the
+ * listeners are notified at most once per {@code speedUpdateDelay}. The legacy listener gets this handler as
+ * the value, so no object is allocated per notification (use its getters from the listener).
+ */
+public class SourceProgressHandler extends ForwardingSource {
+    private final long contentLength;
+    private long amountComplete = 0, bytesSinceClockCheck = 0;
+    private final long startTime = System.nanoTime();
+    private long lastUpdateTime = startTime;
+    private final SpeedMeter speedMeter = new SpeedMeter(startTime, 3000);
+    private long speedUpdateDelayNanos = TimeUnit.MILLISECONDS.toNanos(1000);
+    private long clockCheckBytes = 64 * 1024;
+    private boolean finished = false;
+    private IHttpProgressListener httpProgressListener;
+    private ITransferProgressListener progressListener;
+
+    /**
+     * @param source
+     * @param contentLength -1 if unknown
+     */
+    public SourceProgressHandler(Source source, long contentLength) {
+        super(source);
+        this.contentLength = contentLength;
+    }
+
+    /**
+     * @param delay in milliseconds
+     * @return
+     */
+    public SourceProgressHandler speedUpdateDelay(long delay) {
+        speedUpdateDelayNanos = TimeUnit.MILLISECONDS.toNanos(delay);
+
+        return this;
+    }
+
+    public SourceProgressHandler clockCheckBytes(long bytes) {
+        clockCheckBytes = bytes;
+
+        return this;
+    }
+
+    public SourceProgressHandler setListener(IHttpProgressListener listener) {
+        httpProgressListener = listener;
+
+        return this;
+    }
+
+    public SourceProgressHandler setProgressListener(ITransferProgressListener listener) {
+        progressListener = listener;
+
+        return this;
+    }
+
+    @Override
+    public long read(Buffer sink, long byteCount) throws IOException {
+        long read;
+        try {
+            read = super.read(sink, byteCount);
+        } catch (IOException e) {
+            notifyListener(IHttpProgressListener.Status.FAILS, System.nanoTime());
+            throw e;
+        }
+
+        if (read == -1) {
+            if (!finished) {
+                finished = true;
+                notifyListener(IHttpProgressListener.Status.SUCCESS, System.nanoTime());
+            }
+            return read;
+        }
+
+        amountComplete += read;
+        bytesSinceClockCheck += read;
+        if (bytesSinceClockCheck >= clockCheckBytes) {
+            bytesSinceClockCheck = 0;
+            long now = System.nanoTime();
+            if (now - lastUpdateTime >= speedUpdateDelayNanos) { // timeout(default 1s) check
+                notifyListener(IHttpProgressListener.Status.RUNNING, now);
+            }
+        }
+
+        return read;
+    }
+
+    private void notifyListener(IHttpProgressListener.Status status, long now) {
+        lastUpdateTime = now;
+        double bytesPerSec = speedMeter.update(amountComplete, now);
+
+        if (progressListener != null) {
+            progressListener.onProgress(amountComplete, now - startTime, bytesPerSec);
+        }
+        if (httpProgressListener != null) {
+            httpProgressListener.notifyListener(status, IHttpProgressListener.UpdateType.DOWNLOAD, this);
+        }
+    }
+
+    public long getBytesRead() {
+        return amountComplete;
+    }
+
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    public double getBytesPerSecond() {
+        return speedMeter.getBytesPerSecond();
+    }
+
+    /**
+     * @return estimated milliseconds left, -1 if it can't be estimated (unknown length or no speed yet)
+     */
+    public long getEtaMillis() {
+        double bytesPerSecond = speedMeter.getBytesPerSecond();
+        if (contentLength < 0 || bytesPerSecond <= 0) {
+            return -1;
+        }
+
+        return (long) (Math.max(0, contentLength - amountComplete) * 1000 / bytesPerSecond);
+    }
+}
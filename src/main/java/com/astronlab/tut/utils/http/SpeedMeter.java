@@ -0,0 +1,46 @@
+package com.astronlab.tut.utils.http;
+
+/**
+ * Exponentially weighted transfer speed: every sample is blended in with a weight depending on the time passed
+ * since the previous one, so the speed follows recent changes without jumping on every short burst.
+ * Not thread safe, it belongs to a single transfer.
+ */
+final class SpeedMeter {
+    private final double timeConstantNanos;
+    private long lastBytes = 0, lastTime;
+    private double bytesPerSecond = 0;
+    private boolean hasSample = false;
+
+    /**
+     * @param startNanos         {@code System.nanoTime()} of the transfer start
+     * @param timeConstantMillis roughly how far back in time the speed "remembers"
+     */
+    SpeedMeter(long startNanos, long timeConstantMillis) {
+        this.lastTime = startNanos;
+        this.timeConstantNanos = timeConstantMillis * 1000000d;
+    }
+
+    double update(long totalBytes, long nowNanos) {
+        long elapsed = nowNanos - lastTime;
+        if (elapsed <= 0) {
+            return bytesPerSecond;
+        }
+
+        double instantSpeed = (totalBytes - lastBytes) * 1e9 / elapsed;
+        if (hasSample) {
+            double weight = 1 - Math.exp(-elapsed / timeConstantNanos);
+            bytesPerSecond += weight * (instantSpeed - bytesPerSecond);
+        } else {
+            bytesPerSecond = instantSpeed;
+            hasSample = true;
+        }
+        lastBytes = totalBytes;
+        lastTime = nowNanos;
+
+        return bytesPerSecond;
+    }
+
+    double getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+}
@@ -0,0 +1,15 @@
+package com.astronlab.tut.utils.http;
+
+import okhttp3.Interceptor;
+
+/**
+ * Interceptor installed by {@code InvokerConfig}. Interceptors are kept sorted by their stage (lowest is the
+ * outermost) whatever order they're configured in, and configuring one again replaces the previous instance.
+ */
+interface StagedInterceptor extends Interceptor {
+    int STAGE_RETRY = 100;
+    int STAGE_CIRCUIT_BREAKER = 200;
+    int STAGE_DECOMPRESSION = 300;
+
+    int stage();
+}
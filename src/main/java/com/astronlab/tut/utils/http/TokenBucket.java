@@ -0,0 +1,131 @@
+package com.astronlab.tut.utils.http;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Lock-free token bucket: {@code ratePerSecond} tokens are added continuously, up to {@code burst} tokens.
+ *
+ * The state is an immutable (tokens, time) pair swapped via compare-and-set, so no thread ever blocks another.
+ * A permit is taken by reserving a token, which may push the balance below zero: the caller then waits until
+ * the debt is paid off by the refill, so waiting callers are served in reservation order.
+ */
+public class TokenBucket {
+    private final double ratePerNano;
+    private final double burst;
+    private final AtomicReference<State> state;
+
+    public TokenBucket(double ratePerSecond, int burst) {
+        if (ratePerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("rate must be > 0 and burst >= 1");
+        }
+        this.ratePerNano = ratePerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.burst = burst;
+        this.state = new AtomicReference<>(new State(burst, System.nanoTime()));
+    }
+
+    /**
+     * Takes a token, possibly in advance
+     *
+     * @return nanoseconds to wait before the token may be used, 0 if it may be used right away
+     */
+    public long reserve() {
+        while (true) {
+            State oldState = state.get();
+            long now = System.nanoTime();
+            double tokens = oldState.refilled(now) - 1;
+            if (state.compareAndSet(oldState, new State(tokens, now))) {
+                return tokens >= 0 ? 0 : (long) Math.ceil(-tokens / ratePerNano);
+            }
+        }
+    }
+
+    /**
+     * @return true if a token was available and has been taken
+     */
+    public boolean tryAcquire() {
+        while (true) {
+            State oldState = state.get();
+            long now = System.nanoTime();
+            double tokens = oldState.refilled(now);
+            if (tokens < 1) {
+                return false;
+            }
+            if (state.compareAndSet(oldState, new State(tokens - 1, now))) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Blocks until a token is available
+     */
+    public void acquire() throws InterruptedIOException {
+        sleep(reserve());
+    }
+
+    /**
+     * @return a future completed (on the shared timer thread) once a token is available, no thread waits meanwhile
+     */
+    public CompletableFuture<Void> acquireAsync() {
+        return delay(reserve());
+    }
+
+    /**
+     * @return nanoseconds until a token is available, none is taken
+     */
+    long nanosUntilAvailable() {
+        double tokens = state.get().refilled(System.nanoTime());
+
+        return tokens >= 1 ? 0 : (long) Math.ceil((1 - tokens) / ratePerNano);
+    }
+
+    public double getAvailableTokens() {
+        return Math.max(0, state.get().refilled(System.nanoTime()));
+    }
+
+    static void sleep(long nanos) throws InterruptedIOException {
+        if (nanos <= 0) {
+            return;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a rate limit permit");
+        }
+    }
+
+    static CompletableFuture<Void> delay(long nanos) {
+        if (nanos <= 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        final CompletableFuture<Void> permit = new CompletableFuture<>();
+        HttpFutures.timer().schedule(new Runnable() {
+            @Override
+            public void run() {
+                permit.complete(null);
+            }
+        }, nanos, TimeUnit.NANOSECONDS);
+
+        return permit;
+    }
+
+    //immutable
+    private final class State {
+        final double tokens;
+        final long time;
+
+        State(double tokens, long time) {
+            this.tokens = tokens;
+            this.time = time;
+        }
+
+        double refilled(long now) {
+            return Math.min(burst, tokens + (now - time) * ratePerNano);
+        }
+    }
+}